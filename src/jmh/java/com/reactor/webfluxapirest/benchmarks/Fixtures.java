@@ -0,0 +1,63 @@
+package com.reactor.webfluxapirest.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.Producto;
+import org.bson.types.ObjectId;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+final class Fixtures {
+
+    private static final String[] CATEGORIAS = {"Electrónica", "Deporte", "Informática", "Muebles"};
+
+    private Fixtures() {
+    }
+
+    /**
+     * Misma configuración que aplica Spring Boot al ObjectMapper de la aplicación.
+     */
+    static ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json().build();
+    }
+
+    /**
+     * Mapper para uno de los formatos que negocia la API: json, smile o cbor.
+     */
+    static ObjectMapper objectMapper(String format) {
+        switch (format) {
+            case "smile":
+                return Jackson2ObjectMapperBuilder.smile().build();
+            case "cbor":
+                return Jackson2ObjectMapperBuilder.cbor().build();
+            default:
+                return objectMapper();
+        }
+    }
+
+    static List<Categoria> categorias() {
+        List<Categoria> categorias = new ArrayList<>();
+        for (String nombre : CATEGORIAS) {
+            Categoria c = new Categoria(nombre);
+            c.setId(new ObjectId().toHexString());
+            categorias.add(c);
+        }
+        return categorias;
+    }
+
+    static List<Producto> productos(int size) {
+        List<Categoria> categorias = categorias();
+        List<Producto> productos = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Producto p = new Producto("Producto de catálogo número " + i, 10.0 + i * 1.37, categorias.get(i % categorias.size()));
+            p.setId(new ObjectId().toHexString());
+            p.setCreateAt(new Date());
+            p.setFoto(i % 2 == 0 ? null : Integer.toHexString(i) + ".jpg");
+            productos.add(p);
+        }
+        return productos;
+    }
+}
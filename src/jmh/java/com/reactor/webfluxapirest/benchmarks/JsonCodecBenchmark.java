@@ -0,0 +1,71 @@
+package com.reactor.webfluxapirest.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.Producto;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    @Param({"1", "20", "500"})
+    private int size;
+
+    @Param({"json", "smile", "cbor"})
+    private String format;
+
+    private ObjectWriter productosWriter;
+    private ObjectReader productosReader;
+    private ObjectWriter categoriasWriter;
+    private ObjectReader categoriasReader;
+
+    private List<Producto> productos;
+    private List<Categoria> categorias;
+    private byte[] productosJson;
+    private byte[] categoriasJson;
+
+    @Setup
+    public void setup() throws Exception {
+        ObjectMapper mapper = Fixtures.objectMapper(format);
+        productosWriter = mapper.writerFor(new TypeReference<List<Producto>>() { });
+        productosReader = mapper.readerFor(new TypeReference<List<Producto>>() { });
+        categoriasWriter = mapper.writerFor(new TypeReference<List<Categoria>>() { });
+        categoriasReader = mapper.readerFor(new TypeReference<List<Categoria>>() { });
+
+        productos = Fixtures.productos(size);
+        categorias = Fixtures.categorias();
+        productosJson = productosWriter.writeValueAsBytes(productos);
+        categoriasJson = categoriasWriter.writeValueAsBytes(categorias);
+    }
+
+    @Benchmark
+    public byte[] encodeProductos() throws Exception {
+        return productosWriter.writeValueAsBytes(productos);
+    }
+
+    @Benchmark
+    public List<Producto> decodeProductos() throws Exception {
+        return productosReader.readValue(productosJson);
+    }
+
+    @Benchmark
+    public byte[] encodeCategorias() throws Exception {
+        return categoriasWriter.writeValueAsBytes(categorias);
+    }
+
+    @Benchmark
+    public List<Categoria> decodeCategorias() throws Exception {
+        return categoriasReader.readValue(categoriasJson);
+    }
+}
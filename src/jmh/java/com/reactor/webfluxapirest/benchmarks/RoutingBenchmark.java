@@ -0,0 +1,114 @@
+package com.reactor.webfluxapirest.benchmarks;
+
+import com.reactor.webfluxapirest.CodecConfig;
+import com.reactor.webfluxapirest.RouterFunctionConfig;
+import com.reactor.webfluxapirest.handlers.ProductoHandler;
+import com.reactor.webfluxapirest.models.Producto;
+import com.reactor.webfluxapirest.support.InMemoryProductService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.reactive.result.view.ViewResolver;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste de resolver la ruta de /api/v2 y de ejecutar el handler completo (incluida la escritura
+ * del cuerpo JSON) contra un servicio en memoria.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+    private static final HandlerStrategies STRATEGIES = HandlerStrategies.withDefaults();
+
+    private RouterFunction<ServerResponse> routes;
+    private String id;
+
+    @Setup
+    public void setup() {
+        List<Producto> productos = Fixtures.productos(100);
+        id = productos.get(50).getId();
+
+        LocalValidatorFactoryBean validator = new LocalValidatorFactoryBean();
+        validator.afterPropertiesSet();
+
+        ProductoHandler handler = new ProductoHandler();
+        ReflectionTestUtils.setField(handler, "service", new InMemoryProductService(productos));
+        ReflectionTestUtils.setField(handler, "validator", validator);
+        ReflectionTestUtils.setField(handler, "defaultLimit", 20);
+        ReflectionTestUtils.setField(handler, "maxLimit", 500);
+        routes = new RouterFunctionConfig().routes(handler);
+    }
+
+    @Benchmark
+    public HandlerFunction<ServerResponse> matchList() {
+        return routes.route(request(HttpMethod.GET, "/api/v2/productos", MediaType.APPLICATION_JSON)).block();
+    }
+
+    @Benchmark
+    public HandlerFunction<ServerResponse> matchStream() {
+        return routes.route(request(HttpMethod.GET, "/api/v2/productos", CodecConfig.APPLICATION_NDJSON)).block();
+    }
+
+    @Benchmark
+    public HandlerFunction<ServerResponse> matchShow() {
+        return routes.route(request(HttpMethod.GET, "/api/v2/productos/" + id, MediaType.APPLICATION_JSON)).block();
+    }
+
+    @Benchmark
+    public HandlerFunction<ServerResponse> matchDelete() {
+        return routes.route(request(HttpMethod.DELETE, "/api/v2/productos/" + id, MediaType.APPLICATION_JSON)).block();
+    }
+
+    @Benchmark
+    public Object handleShow() {
+        return handle(HttpMethod.GET, "/api/v2/productos/" + id);
+    }
+
+    @Benchmark
+    public Object handleList() {
+        return handle(HttpMethod.GET, "/api/v2/productos?limit=20");
+    }
+
+    private Object handle(HttpMethod method, String uri) {
+        MockServerWebExchange exchange = MockServerWebExchange.from(
+                MockServerHttpRequest.method(method, uri).accept(MediaType.APPLICATION_JSON));
+        ServerRequest request = ServerRequest.create(exchange, STRATEGIES.messageReaders());
+        routes.route(request)
+                .flatMap(h -> h.handle(request))
+                .flatMap(response -> response.writeTo(exchange, new ServerResponse.Context() {
+                    @Override
+                    public List<HttpMessageWriter<?>> messageWriters() {
+                        return STRATEGIES.messageWriters();
+                    }
+
+                    @Override
+                    public List<ViewResolver> viewResolvers() {
+                        return STRATEGIES.viewResolvers();
+                    }
+                }))
+                .block();
+        return exchange.getResponse().getBodyAsString().block();
+    }
+
+    private static ServerRequest request(HttpMethod method, String uri, MediaType accept) {
+        return ServerRequest.create(MockServerWebExchange.from(MockServerHttpRequest.method(method, uri).accept(accept)),
+                STRATEGIES.messageReaders());
+    }
+}
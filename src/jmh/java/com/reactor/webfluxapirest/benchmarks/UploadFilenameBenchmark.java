@@ -0,0 +1,23 @@
+package com.reactor.webfluxapirest.benchmarks;
+
+import com.reactor.webfluxapirest.services.PhotoStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadFilenameBenchmark {
+
+    @Param({"foto.jpg", "C:\\\\Users\\\\cliente\\\\Mis fotos\\\\Cómoda 5 cajones (1).JPEG", "sin-extension"})
+    private String filename;
+
+    @Benchmark
+    public String extension() {
+        return PhotoStorage.extension(filename);
+    }
+}
@@ -0,0 +1,54 @@
+package com.reactor.webfluxapirest.benchmarks;
+
+import com.reactor.webfluxapirest.models.Producto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.validation.Errors;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * El mismo recorrido que ProductoHandler.create: BindingResult nuevo por petición más Bean Validation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    private LocalValidatorFactoryBean validator;
+    private Producto valid;
+    private Producto invalid;
+
+    @Setup
+    public void setup() {
+        validator = new LocalValidatorFactoryBean();
+        validator.afterPropertiesSet();
+        valid = Fixtures.productos(1).get(0);
+        invalid = new Producto("", null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        validator.close();
+    }
+
+    @Benchmark
+    public boolean validProducto() {
+        return validate(valid);
+    }
+
+    @Benchmark
+    public boolean invalidProducto() {
+        return validate(invalid);
+    }
+
+    private boolean validate(Producto p) {
+        Errors errors = new BeanPropertyBindingResult(p, Producto.class.getName());
+        validator.validate(p, errors);
+        return errors.hasErrors();
+    }
+}
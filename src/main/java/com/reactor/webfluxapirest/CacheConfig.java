@@ -0,0 +1,44 @@
+package com.reactor.webfluxapirest;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.Producto;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class CacheConfig {
+
+    @Bean
+    public AsyncCache<String, Producto> productoCache(@Value("${cache.productos.max-size}") long maxSize,
+                                                      @Value("${cache.productos.ttl}") Duration ttl,
+                                                      MeterRegistry registry) {
+        return monitor(build(maxSize, ttl), "productos", registry);
+    }
+
+    @Bean
+    public AsyncCache<String, Categoria> categoriaCache(@Value("${cache.categorias.max-size}") long maxSize,
+                                                        @Value("${cache.categorias.ttl}") Duration ttl,
+                                                        MeterRegistry registry) {
+        return monitor(build(maxSize, ttl), "categorias", registry);
+    }
+
+    private static <V> AsyncCache<String, V> build(long maxSize, Duration ttl) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+    }
+
+    private static <V> AsyncCache<String, V> monitor(AsyncCache<String, V> cache, String name, MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache.synchronous(), name);
+        return cache;
+    }
+}
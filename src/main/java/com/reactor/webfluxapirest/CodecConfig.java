@@ -0,0 +1,107 @@
+package com.reactor.webfluxapirest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.reactivestreams.Publisher;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+@Configuration
+public class CodecConfig {
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+    public static final MediaType APPLICATION_SMILE = MediaType.parseMediaType(APPLICATION_SMILE_VALUE);
+    public static final String APPLICATION_STREAM_SMILE_VALUE = "application/stream+x-jackson-smile";
+    public static final MediaType APPLICATION_STREAM_SMILE = MediaType.parseMediaType(APPLICATION_STREAM_SMILE_VALUE);
+
+    /**
+     * Registra application/x-ndjson en los codecs de Jackson: cada elemento de un Flux se escribe
+     * y se vacía al socket en cuanto llega, en lugar de acumular un array JSON completo.
+     */
+    @Bean
+    public CodecCustomizer ndjsonCodecCustomizer(ObjectMapper mapper) {
+        return configurer -> {
+            configurer.defaultCodecs().jackson2JsonEncoder(jsonEncoder(mapper));
+            configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(mapper,
+                    MediaType.APPLICATION_JSON, new MediaType("application", "*+json"), APPLICATION_NDJSON));
+        };
+    }
+
+    /**
+     * Formatos binarios para los clientes internos: Smile (también en streaming) y CBOR. Los mappers salen
+     * del mismo builder que el de JSON para que módulos, fechas e inclusión de nulos sean idénticos.
+     * <p>
+     * CBOR no tiene hueco entre los codecs por defecto y los propios se consultan antes que ellos, así que se
+     * registra también el de JSON delante: con Accept *&#47;* la respuesta sigue siendo JSON.
+     */
+    @Bean
+    public CodecCustomizer binaryCodecCustomizer(ObjectMapper mapper, Jackson2ObjectMapperBuilder builder) {
+        ObjectMapper smile = builder.factory(new SmileFactory()).build();
+        ObjectMapper cbor = builder.factory(new CBORFactory()).build();
+        return configurer -> {
+            configurer.defaultCodecs().jackson2SmileEncoder(
+                    new Jackson2SmileEncoder(smile, APPLICATION_SMILE, APPLICATION_STREAM_SMILE));
+            configurer.defaultCodecs().jackson2SmileDecoder(
+                    new Jackson2SmileDecoder(smile, APPLICATION_SMILE, APPLICATION_STREAM_SMILE));
+            configurer.customCodecs().registerWithDefaultConfig(jsonEncoder(mapper));
+            configurer.customCodecs().registerWithDefaultConfig(new CborEncoder(cbor));
+            configurer.customCodecs().registerWithDefaultConfig(new Jackson2CborDecoder(cbor, MediaType.APPLICATION_CBOR));
+        };
+    }
+
+    private static Jackson2JsonEncoder jsonEncoder(ObjectMapper mapper) {
+        Jackson2JsonEncoder encoder = new Jackson2JsonEncoder(mapper,
+                MediaType.APPLICATION_JSON, new MediaType("application", "*+json"), APPLICATION_NDJSON);
+        encoder.setStreamingMediaTypes(List.of(MediaType.APPLICATION_STREAM_JSON, APPLICATION_NDJSON));
+        return encoder;
+    }
+
+    /**
+     * El Jackson2CborEncoder de Spring 5.2 rechaza cualquier Publisher, incluido el Mono de un ResponseEntity.
+     * Un Mono se codifica como valor único y un Flux se agrupa en una lista, igual que hace el encoder JSON
+     * cuando el tipo pedido no es de streaming.
+     */
+    static class CborEncoder extends Jackson2CborEncoder {
+
+        CborEncoder(ObjectMapper mapper) {
+            super(mapper, MediaType.APPLICATION_CBOR);
+        }
+
+        @Override
+        public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                       ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+            if (inputStream instanceof Mono) {
+                return Mono.from(inputStream)
+                        .map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints))
+                        .flux();
+            }
+            ResolvableType listType = ResolvableType.forClassWithGenerics(List.class, elementType);
+            return Flux.from(inputStream)
+                    .collectList()
+                    .map(list -> encodeValue(list, bufferFactory, listType, mimeType, hints))
+                    .flux();
+        }
+    }
+}
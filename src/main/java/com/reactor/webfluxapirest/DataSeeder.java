@@ -0,0 +1,69 @@
+package com.reactor.webfluxapirest;
+
+import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.Foto;
+import com.reactor.webfluxapirest.models.Producto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Borra y vuelve a cargar los datos de ejemplo. Sólo se activa con seed.enabled=true;
+ * en producción debe quedar desactivado.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(name = "seed.enabled", havingValue = "true")
+public class DataSeeder implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(DataSeeder.class);
+
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
+
+    @Override
+    public void run(String... args) {
+        long start = System.nanoTime();
+
+        Categoria electronica = new Categoria("Electrónica");
+        Categoria deporte = new Categoria("Deporte");
+        Categoria informatica = new Categoria("Informática");
+        Categoria mueble = new Categoria("Muebles");
+        List<Categoria> categorias = List.of(electronica, deporte, informatica, mueble);
+
+        Date now = new Date();
+        List<Producto> productos = List.of(
+                new Producto("TV Panasonic Pantalla LCD", 456.89, electronica),
+                new Producto("Sony Camara HD Digital", 177.89, electronica),
+                new Producto("Apple Ipod", 46.89, electronica),
+                new Producto("Sony Notebook", 846.89, informatica),
+                new Producto("Hewlett Packard Multifuncional", 200.89, informatica),
+                new Producto("Bianchi Bicicleta", 70.89, deporte),
+                new Producto("HP Notebook Omen 17", 2500.89, informatica),
+                new Producto("Mica Cómoda 5 Cajones", 150.89, mueble),
+                new Producto("TV Sony Bravia OLED 4k Ultra HD", 2255.89, electronica));
+        productos.forEach(p -> p.setCreateAt(now));
+
+        // Los productos embeben las categorías, así que se insertan cuando éstas ya tienen id. Las cuentas de
+        // referencias de fotos se van con los productos que las tenían; los ficheros quedan fuera del recuento
+        Mono.when(mongoTemplate.dropCollection(Producto.class), mongoTemplate.dropCollection(Categoria.class),
+                mongoTemplate.dropCollection(Foto.class))
+                .thenMany(mongoTemplate.insertAll(categorias))
+                .thenMany(mongoTemplate.insertAll(productos))
+                .then()
+                .block();
+
+        log.info("Datos de ejemplo cargados: " + categorias.size() + " categorias, " + productos.size()
+                + " productos en " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
@@ -0,0 +1,135 @@
+package com.reactor.webfluxapirest;
+
+import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.Producto;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.index.CompoundIndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Crea los índices que necesitan las consultas de la API y comprueba que cada forma de consulta
+ * tiene un índice cuyo prefijo la cubre. Se ejecuta después de DataSeeder, que borra las colecciones.
+ * Con indices.create=false sólo se verifica (índices gestionados fuera de la aplicación) y
+ * indices.on-missing decide si un hueco es un aviso o un error de arranque.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+@ConditionalOnProperty(name = "indices.enabled", havingValue = "true", matchIfMissing = true)
+public class IndexInitializer implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexInitializer.class);
+
+    /**
+     * Campos de filtro/orden de cada consulta, en el orden en que debe aparecer en el índice. Van con los nombres
+     * de las propiedades, como en las consultas; {@link #mapped} los pasa a los del documento (categoria.id es
+     * categoria._id en Mongo) igual que hace el template con los criterios.
+     */
+    private static final Map<Class<?>, List<List<String>>> QUERY_SHAPES = Map.of(
+            Producto.class, List.of(
+                    List.of("nombre"),
+                    List.of("categoria.id"),
+                    List.of("categoria.id", "precio"),
+                    List.of("categoria.id", "createAt"),
+                    List.of("precio"),
+                    List.of("createAt")),
+            Categoria.class, List.of(
+                    List.of("nombre")));
+
+    private static final Map<Class<?>, List<Document>> INDEXES = Map.of(
+            Producto.class, List.of(
+                    new Document("nombre", 1),
+                    new Document("categoria.id", 1).append("precio", 1),
+                    new Document("categoria.id", 1).append("createAt", -1),
+                    new Document("precio", 1),
+                    new Document("createAt", -1)),
+            Categoria.class, List.of(
+                    new Document("nombre", 1)));
+
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
+
+    @Value("${indices.create}")
+    private boolean create;
+    @Value("${indices.on-missing}")
+    private String onMissing;
+    @Value("${indices.timeout}")
+    private Duration timeout;
+
+    @Override
+    public void run(String... args) {
+        if (create) {
+            Flux.fromIterable(INDEXES.entrySet())
+                    .flatMap(e -> Flux.fromIterable(e.getValue())
+                            .concatMap(keys -> mongoTemplate.indexOps(e.getKey()).ensureIndex(definition(mapped(keys, e.getKey())))))
+                    .doOnNext(name -> log.info("Índice asegurado: " + name))
+                    .blockLast(timeout);
+        }
+
+        List<String> missing = Flux.fromIterable(QUERY_SHAPES.entrySet())
+                .flatMap(e -> mongoTemplate.indexOps(e.getKey()).getIndexInfo()
+                        .collectList()
+                        .flatMapIterable(indexes -> e.getValue().stream()
+                                .filter(shape -> indexes.stream().noneMatch(index -> covers(index, mapped(shape, e.getKey()))))
+                                .map(shape -> mongoTemplate.getCollectionName(e.getKey()) + " " + shape)
+                                .collect(Collectors.toList())))
+                .collectList()
+                .block(timeout);
+
+        if (missing != null && !missing.isEmpty()) {
+            String message = "Consultas sin índice que las cubra: " + missing;
+            if ("fail".equalsIgnoreCase(onMissing)) {
+                throw new IllegalStateException(message);
+            }
+            log.warn(message);
+        }
+    }
+
+    private Document mapped(Document keys, Class<?> type) {
+        return new QueryMapper(mongoTemplate.getConverter())
+                .getMappedSort(keys, mongoTemplate.getConverter().getMappingContext().getPersistentEntity(type));
+    }
+
+    private List<String> mapped(List<String> shape, Class<?> type) {
+        Document keys = new Document();
+        shape.forEach(field -> keys.append(field, 1));
+        return new ArrayList<>(mapped(keys, type).keySet());
+    }
+
+    private static IndexDefinition definition(Document keys) {
+        return new CompoundIndexDefinition(keys)
+                .named(keys.entrySet().stream().map(k -> k.getKey() + "_" + k.getValue()).collect(Collectors.joining("_")));
+    }
+
+    private static boolean covers(IndexInfo index, List<String> shape) {
+        List<IndexField> fields = index.getIndexFields();
+        if (fields.size() < shape.size()) {
+            return false;
+        }
+        for (int i = 0; i < shape.size(); i++) {
+            if (!fields.get(i).getKey().equals(shape.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,47 @@
+package com.reactor.webfluxapirest;
+
+import com.reactor.webfluxapirest.metrics.MongoCommandMetrics;
+import com.reactor.webfluxapirest.metrics.MongoPoolMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class MongoConfig {
+
+    /**
+     * Tamaño del pool y tiempos del driver desde mongo.*, sobre lo que ya trae spring.data.mongodb.uri, y los
+     * listeners que publican las métricas del pool y de cada comando.
+     * <p>
+     * El driver 4 ya no tiene una cola de espera con tamaño: cada petición espera como mucho mongo.pool.max-wait y
+     * el número de peticiones que llegan a esperar lo acota AdmissionControlFilter.
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoClientCustomizer(@Value("${mongo.pool.max-size}") int maxSize,
+                                                                      @Value("${mongo.pool.min-size}") int minSize,
+                                                                      @Value("${mongo.pool.max-wait}") Duration maxWait,
+                                                                      @Value("${mongo.pool.max-idle}") Duration maxIdle,
+                                                                      @Value("${mongo.connect-timeout}") Duration connectTimeout,
+                                                                      @Value("${mongo.read-timeout}") Duration readTimeout,
+                                                                      @Value("${mongo.server-selection-timeout}") Duration serverSelectionTimeout,
+                                                                      MongoPoolMetrics poolMetrics,
+                                                                      MongoCommandMetrics commandMetrics) {
+        return builder -> builder
+                .applyToConnectionPoolSettings(pool -> pool
+                        .maxSize(maxSize)
+                        .minSize(minSize)
+                        .maxWaitTime(maxWait.toMillis(), TimeUnit.MILLISECONDS)
+                        .maxConnectionIdleTime(maxIdle.toMillis(), TimeUnit.MILLISECONDS)
+                        .addConnectionPoolListener(poolMetrics))
+                .applyToSocketSettings(socket -> socket
+                        .connectTimeout((int) connectTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                        .readTimeout((int) readTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                .applyToClusterSettings(cluster -> cluster
+                        .serverSelectionTimeout(serverSelectionTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                .addCommandListener(commandMetrics);
+    }
+}
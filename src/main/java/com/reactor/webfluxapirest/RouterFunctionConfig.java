@@ -3,6 +3,8 @@ package com.reactor.webfluxapirest;
 import com.reactor.webfluxapirest.handlers.ProductoHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
@@ -14,13 +16,33 @@ public class RouterFunctionConfig {
 
     @Bean
     public RouterFunction<ServerResponse> routes(ProductoHandler handler) {
-        return route(GET("/api/v2/productos"), handler::list)
+        return route(GET("/api/v2/productos").and(acceptsExactly(CodecConfig.APPLICATION_NDJSON)
+                        .or(acceptsExactly(CodecConfig.APPLICATION_STREAM_SMILE))), handler::stream)
+                .andRoute(GET("/api/v2/productos"), handler::list)
+                .andRoute(GET("/api/v2/productos/eventos"), handler::events)
+                .andRoute(GET("/api/v2/productos/buscar"), handler::search)
+                .andRoute(GET("/api/v2/productos/consulta"), handler::query)
+                .andRoute(GET("/api/v2/productos/lote"), handler::findMany)
+                .andRoute(POST("/api/v2/productos/lote"), handler::findManyPost)
+                .andRoute(GET("/api/v2/productos/estadisticas"), handler::stats)
                 .andRoute(GET("/api/v2/productos/{id}"), handler::show)
+                .andRoute(GET("/api/v2/productos/{id}/foto"), handler::foto)
                 .andRoute(POST("/api/v2/productos"), handler::create)
+                .andRoute(POST("/api/v2/productos/bulk"), handler::bulk)
                 .andRoute(PUT("/api/v2/productos/{id}"), handler::update)
+                .andRoute(PATCH("/api/v2/productos/{id}"), handler::patch)
                 .andRoute(DELETE("/api/v2/productos/{id}"), handler::delete)
+                .andRoute(DELETE("/api/v2/productos"), handler::deleteMany)
                 .andRoute(POST("/api/v2/productos/upload/{id}"), handler::upload)
                 .andRoute(POST("/api/v2/productos/create-with-photo"), handler::createWithPhoto);
     }
 
+    /**
+     * A diferencia de {@code accept(...)}, no casa con comodines como *&#47;*, de modo que sólo los clientes
+     * que piden explícitamente el tipo obtienen la ruta alternativa.
+     */
+    private static RequestPredicate acceptsExactly(MediaType mediaType) {
+        return headers(h -> h.accept().stream().anyMatch(mediaType::equalsTypeAndSubtype));
+    }
+
 }
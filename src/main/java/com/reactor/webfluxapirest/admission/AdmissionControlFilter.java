@@ -0,0 +1,119 @@
+package com.reactor.webfluxapirest.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Control de admisión delante de las rutas de productos de ambas versiones. Cada grupo (reads, writes, uploads)
+ * tiene su propio {@link ConcurrencyLimiter}, de modo que una avalancha de subidas no deja sin hueco a las
+ * lecturas. Lo que no cabe se rechaza con admission.reject-status y Retry-After antes de tocar Mongo.
+ * <p>
+ * Métricas: admission.limit, admission.inflight y admission.queue (gauges) y admission.rejected{reason}
+ * (contador), todas con la etiqueta group.
+ */
+@Component
+@ConditionalOnProperty(name = "admission.enabled", havingValue = "true", matchIfMissing = true)
+public class AdmissionControlFilter implements WebFilter {
+
+    private static final List<String> GROUPS = List.of("reads", "writes", "uploads");
+
+    private final Map<String, ConcurrencyLimiter> limiters = new HashMap<>();
+    private final Map<String, Map<ConcurrencyLimiter.Rejection, Counter>> rejected = new HashMap<>();
+    private final HttpStatus rejectStatus;
+    private final String retryAfter;
+
+    public AdmissionControlFilter(Environment env, MeterRegistry registry,
+                                  @Value("${admission.reject-status}") int rejectStatus,
+                                  @Value("${admission.retry-after}") Duration retryAfter,
+                                  @Value("${admission.adaptive.enabled}") boolean adaptive,
+                                  @Value("${admission.adaptive.min-limit}") int minLimit,
+                                  @Value("${admission.adaptive.latency-threshold}") Duration latencyThreshold,
+                                  @Value("${admission.adaptive.backoff}") double backoff) {
+        this.rejectStatus = HttpStatus.valueOf(rejectStatus);
+        this.retryAfter = Long.toString(Math.max(1, (retryAfter.toMillis() + 999) / 1000));
+        for (String group : GROUPS) {
+            String prefix = "admission." + group + ".";
+            int limit = env.getRequiredProperty(prefix + "limit", Integer.class);
+            ConcurrencyLimiter limiter = new ConcurrencyLimiter(limit,
+                    Math.min(minLimit, limit),
+                    env.getProperty(prefix + "max-limit", Integer.class, limit),
+                    env.getRequiredProperty(prefix + "max-queue", Integer.class),
+                    env.getRequiredProperty(prefix + "max-wait", Duration.class),
+                    adaptive, latencyThreshold, backoff);
+            limiters.put(group, limiter);
+
+            Tags tags = Tags.of("group", group);
+            registry.gauge("admission.limit", tags, limiter, ConcurrencyLimiter::getLimit);
+            registry.gauge("admission.inflight", tags, limiter, ConcurrencyLimiter::getInFlight);
+            registry.gauge("admission.queue", tags, limiter, ConcurrencyLimiter::getQueued);
+            Map<ConcurrencyLimiter.Rejection, Counter> counters = new EnumMap<>(ConcurrencyLimiter.Rejection.class);
+            for (ConcurrencyLimiter.Rejection reason : ConcurrencyLimiter.Rejection.values()) {
+                counters.put(reason, registry.counter("admission.rejected", tags.and("reason", reason.name().toLowerCase())));
+            }
+            rejected.put(group, counters);
+        }
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String group = group(exchange.getRequest());
+        if (group == null) {
+            return chain.filter(exchange);
+        }
+        return limiters.get(group).acquire()
+                .flatMap(permit -> chain.filter(exchange).doFinally(signal -> permit.release(failed(exchange, signal))))
+                .onErrorResume(AdmissionRejectedException.class, e -> {
+                    rejected.get(group).get(e.getReason()).increment();
+                    ServerHttpResponse response = exchange.getResponse();
+                    response.setStatusCode(rejectStatus);
+                    response.getHeaders().set(HttpHeaders.RETRY_AFTER, retryAfter);
+                    return response.setComplete();
+                });
+    }
+
+    /**
+     * Sólo las rutas de productos; el SSE de eventos queda fuera porque una conexión abierta durante horas
+     * ocuparía un hueco sin cargar Mongo.
+     */
+    private static String group(ServerHttpRequest request) {
+        String path = request.getPath().value();
+        if (!path.startsWith("/api/v1/productos") && !path.startsWith("/api/v2/productos")
+                || path.endsWith("/eventos")) {
+            return null;
+        }
+        HttpMethod method = request.getMethod();
+        // La lectura por lotes llega por POST cuando la lista de ids no cabe en la URL
+        if (method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.POST && path.endsWith("/lote")) {
+            return "reads";
+        }
+        MediaType contentType = request.getHeaders().getContentType();
+        return contentType != null && MediaType.MULTIPART_FORM_DATA.isCompatibleWith(contentType) ? "uploads" : "writes";
+    }
+
+    private static boolean failed(ServerWebExchange exchange, SignalType signal) {
+        HttpStatus status = exchange.getResponse().getStatusCode();
+        return signal == SignalType.ON_ERROR || status != null && status.is5xxServerError();
+    }
+}
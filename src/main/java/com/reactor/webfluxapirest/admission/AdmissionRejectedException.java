@@ -0,0 +1,18 @@
+package com.reactor.webfluxapirest.admission;
+
+/**
+ * La petición no ha entrado: cola llena o espera agotada. Sin traza, porque en plena avalancha se crean muchas.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    private final ConcurrencyLimiter.Rejection reason;
+
+    public AdmissionRejectedException(ConcurrencyLimiter.Rejection reason) {
+        super("Petición rechazada por control de admisión: " + reason, null, false, false);
+        this.reason = reason;
+    }
+
+    public ConcurrencyLimiter.Rejection getReason() {
+        return reason;
+    }
+}
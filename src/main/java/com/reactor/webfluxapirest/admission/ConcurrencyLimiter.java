@@ -0,0 +1,202 @@
+package com.reactor.webfluxapirest.admission;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Límite de peticiones concurrentes con una cola de espera acotada. Si no hay hueco y la cola está llena, o la
+ * espera supera {@code maxWait}, la petición se rechaza en el acto en lugar de acumular trabajo para Mongo.
+ * <p>
+ * Con {@code adaptive} el límite se ajusta por AIMD: mientras las respuestas llegan por debajo de
+ * {@code latencyThreshold} con el límite casi agotado crece un permiso por cada {@code limit} respuestas, y se
+ * multiplica por {@code backoff} en cuanto una tarda más o termina en error.
+ */
+public class ConcurrencyLimiter {
+
+    public enum Rejection {
+        QUEUE_FULL, TIMEOUT
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final Duration maxWait;
+    private final boolean adaptive;
+    private final long latencyThresholdNanos;
+    private final double backoff;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private volatile double limit;
+
+    public ConcurrencyLimiter(int limit, int maxQueue, Duration maxWait) {
+        this(limit, limit, limit, maxQueue, maxWait, false, Duration.ZERO, 1.0);
+    }
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue, Duration maxWait,
+                              boolean adaptive, Duration latencyThreshold, double backoff) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+        this.adaptive = adaptive;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoff = backoff;
+    }
+
+    /**
+     * Emite un permiso cuando la petición puede pasar, o un {@link AdmissionRejectedException}. Quien recibe el
+     * permiso debe liberarlo una única vez; si la suscripción se cancela mientras espera, el hueco no se pierde.
+     */
+    public Mono<Permit> acquire() {
+        return Mono.create(sink -> {
+            if (tryAcquire()) {
+                sink.success(new Permit());
+                return;
+            }
+            if (queued.incrementAndGet() > maxQueue) {
+                queued.decrementAndGet();
+                sink.error(new AdmissionRejectedException(Rejection.QUEUE_FULL));
+                return;
+            }
+            Waiter waiter = new Waiter(sink);
+            waiters.add(waiter);
+            waiter.timer = Schedulers.parallel().schedule(waiter::expire, maxWait.toNanos(), TimeUnit.NANOSECONDS);
+            sink.onCancel(waiter::cancel);
+            // Un permiso liberado entre el tryAcquire y el add no habría encontrado a nadie en la cola
+            drain();
+        });
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    private void drain() {
+        while (!waiters.isEmpty() && tryAcquire()) {
+            Waiter waiter = waiters.poll();
+            if (waiter == null || !waiter.grant()) {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private void onSample(long latencyNanos, boolean failed) {
+        if (!adaptive) {
+            return;
+        }
+        double current = limit;
+        if (failed || latencyNanos > latencyThresholdNanos) {
+            limit = Math.max(minLimit, current * backoff);
+        } else if (inFlight.get() * 2 >= current) {
+            // Sólo se amplía si el límite se está usando; si no, crecería sin medida durante los valles
+            limit = Math.min(maxLimit, current + 1 / current);
+        }
+        if (!waiters.isEmpty()) {
+            drain();
+        }
+    }
+
+    public class Permit {
+
+        private final long start = System.nanoTime();
+        private final AtomicInteger released = new AtomicInteger();
+
+        public void release(boolean failed) {
+            if (released.compareAndSet(0, 1)) {
+                onSample(System.nanoTime() - start, failed);
+                ConcurrencyLimiter.this.release();
+            }
+        }
+    }
+
+    private class Waiter {
+
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final MonoSink<Permit> sink;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        private volatile Disposable timer;
+
+        Waiter(MonoSink<Permit> sink) {
+            this.sink = sink;
+        }
+
+        boolean grant() {
+            if (!state.compareAndSet(WAITING, GRANTED)) {
+                return false;
+            }
+            queued.decrementAndGet();
+            dispose();
+            sink.success(new Permit());
+            return true;
+        }
+
+        void expire() {
+            if (leave()) {
+                sink.error(new AdmissionRejectedException(Rejection.TIMEOUT));
+            }
+        }
+
+        void cancel() {
+            if (!leave() && state.get() == GRANTED) {
+                // Se concedió el permiso justo cuando el cliente se iba: el success se descarta, así que se libera aquí
+                release();
+            }
+        }
+
+        private boolean leave() {
+            if (!state.compareAndSet(WAITING, CANCELLED)) {
+                return false;
+            }
+            waiters.remove(this);
+            queued.decrementAndGet();
+            dispose();
+            return true;
+        }
+
+        private void dispose() {
+            Disposable t = timer;
+            if (t != null) {
+                t.dispose();
+            }
+        }
+    }
+}
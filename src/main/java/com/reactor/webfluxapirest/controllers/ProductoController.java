@@ -1,26 +1,39 @@
 package com.reactor.webfluxapirest.controllers;
 
+import com.reactor.webfluxapirest.CodecConfig;
+import com.reactor.webfluxapirest.models.EstadisticasCategoria;
+import com.reactor.webfluxapirest.models.LoteProductos;
 import com.reactor.webfluxapirest.models.Producto;
 import com.reactor.webfluxapirest.services.IProductService;
-import org.apache.commons.lang3.StringUtils;
+import com.reactor.webfluxapirest.services.PhotoStorage;
+import com.reactor.webfluxapirest.services.ProductoETags;
+import com.reactor.webfluxapirest.services.ProductoFields;
+import com.reactor.webfluxapirest.services.ProductoFilter;
+import com.reactor.webfluxapirest.services.ThumbnailPipeline;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.server.ServerWebExchange;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import javax.validation.Valid;
-import java.io.File;
 import java.net.URI;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/v1/productos")
@@ -29,25 +42,131 @@ public class ProductoController {
     @Autowired
     private IProductService service;
 
-    @Value("${resources}")
-    private String resources;
+    @Autowired
+    private PhotoStorage photoStorage;
+    @Autowired
+    private ThumbnailPipeline thumbnails;
+
+    @Value("${productos.page.default-limit}")
+    private int defaultLimit;
+
+    @Value("${productos.page.max-limit}")
+    private int maxLimit;
+
+    @Value("${productos.lote.max-size}")
+    private int loteMaxSize;
 
+    @Value("${search.default-limit}")
+    private int searchDefaultLimit;
+
+    @Value("${search.max-limit}")
+    private int searchMaxLimit;
+
+    // Sin Content-Type fijo: se negocia con Accept entre JSON, Smile y CBOR (CodecConfig)
     @GetMapping
-    public Mono<ResponseEntity<Flux<Producto>>> list() {
-        return Mono.just(ResponseEntity.ok()
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(service.findAll()));
+    public Mono<ResponseEntity<List<?>>> list(@RequestParam(required = false) String after,
+                                              @RequestParam(required = false) Integer limit,
+                                              @RequestParam(required = false) String fields) {
+        if (after != null && !ObjectId.isValid(after)) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        Set<String> campos = ProductoFields.parse(fields);
+        int size = limit == null ? defaultLimit : Math.max(1, Math.min(limit, maxLimit));
+        return service.findPage(after, size + 1, campos)
+                .collectList()
+                .map(list -> {
+                    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+                    if (list.size() > size) {
+                        list = list.subList(0, size);
+                        String next = list.get(size - 1).getId();
+                        response.header("X-Next-Cursor", next)
+                                .header(HttpHeaders.LINK, "</api/v1/productos?after=" + next + "&limit=" + size + ">; rel=\"next\"");
+                    }
+                    // Con If-None-Match coincidente ResponseEntityResultHandler responde 304 sin serializar el cuerpo
+                    return response.eTag(ProductoETags.of(list, campos)).body(campos == null ? list : list.stream()
+                            .map(p -> ProductoFields.project(p, campos))
+                            .collect(Collectors.toList()));
+                });
+    }
+
+    @GetMapping(produces = {CodecConfig.APPLICATION_NDJSON_VALUE, CodecConfig.APPLICATION_STREAM_SMILE_VALUE})
+    public Flux<Producto> stream(@RequestParam(required = false) String after) {
+        if (after != null && !ObjectId.isValid(after)) {
+            return Flux.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Cursor no válido"));
+        }
+        return service.streamAll(after);
+    }
+
+    @GetMapping("/buscar")
+    public Flux<Producto> search(@RequestParam String q, @RequestParam(required = false) Integer limit) {
+        return service.search(q, limit == null ? searchDefaultLimit : Math.max(1, Math.min(limit, searchMaxLimit)));
+    }
+
+    // Con Accept NDJSON o stream+x-jackson-smile se escribe cada producto según lo devuelve Mongo
+    @GetMapping("/consulta")
+    public Flux<?> query(@RequestParam(required = false) String categoria,
+                         @RequestParam(required = false) String precioMin,
+                         @RequestParam(required = false) String precioMax,
+                         @RequestParam(required = false) String desde,
+                         @RequestParam(required = false) String hasta,
+                         @RequestParam(required = false) String sort,
+                         @RequestParam(required = false) Integer limit,
+                         @RequestParam(required = false) String fields) {
+        ProductoFilter filter = ProductoFilter.parse(categoria, precioMin, precioMax, desde, hasta, sort);
+        Set<String> campos = ProductoFields.parse(fields);
+        int size = limit == null ? defaultLimit : Math.max(1, Math.min(limit, maxLimit));
+        Flux<Producto> productos = service.findByFilter(filter, size, campos);
+        return campos == null ? productos : productos.map(p -> ProductoFields.project(p, campos));
+    }
+
+    @GetMapping("/lote")
+    public Mono<LoteProductos> findMany(@RequestParam List<String> ids) {
+        Set<String> lote = LoteProductos.ids(ids, loteMaxSize);
+        return service.findAllById(lote)
+                .collectMap(Producto::getId)
+                .map(encontrados -> LoteProductos.of(lote, encontrados));
+    }
+
+    // Para listas de ids que no caben en la URL
+    @PostMapping("/lote")
+    public Mono<LoteProductos> findManyPost(@RequestBody List<String> ids) {
+        return findMany(ids);
+    }
+
+    @GetMapping("/estadisticas")
+    public Flux<EstadisticasCategoria> stats() {
+        return service.findEstadisticasCategoria();
     }
 
     @GetMapping("/{id}")
-    public Mono<ResponseEntity<Producto>> show(@PathVariable String id) {
-        return service.findById(id)
+    public Mono<ResponseEntity<Object>> show(@PathVariable String id, @RequestParam(required = false) String fields) {
+        Set<String> campos = ProductoFields.parse(fields);
+        return service.findById(id, campos)
                 .map(p -> ResponseEntity.ok()
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body(p))
+                        .eTag(ProductoETags.of(p, campos))
+                        .body(campos == null ? p : ProductoFields.project(p, campos)))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> badRequest(IllegalArgumentException e) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("errors", List.of(e.getMessage()));
+        response.put("timestamp", new Date());
+        response.put("status", HttpStatus.BAD_REQUEST.value());
+        return ResponseEntity.badRequest().body(response);
+    }
+
+    /**
+     * Con If-Match es que la versión enviada ya no es la actual; sin él, otra escritura se ha adelantado
+     * entre la lectura y el guardado (p. ej. al subir una foto).
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<Void> versionConflict(ServerWebExchange exchange) {
+        return ResponseEntity.status(exchange.getRequest().getHeaders().getIfMatch().isEmpty()
+                ? HttpStatus.CONFLICT : HttpStatus.PRECONDITION_FAILED).build();
+    }
+
     @PostMapping
     public Mono<ResponseEntity<Map<String, Object>>> create(@Valid @RequestBody Mono<Producto> monoProducto) {
 
@@ -81,37 +200,67 @@ public class ProductoController {
     }
 
     @PutMapping("/{id}")
-    public Mono<ResponseEntity<Producto>> update(@PathVariable String id, @RequestBody Producto producto) {
-        return service.findById(id)
-                .flatMap(p -> {
-                    p.setNombre(producto.getNombre());
-                    p.setPrecio(producto.getPrecio());
-                    p.setCategoria(producto.getCategoria());
-                    return service.save(p);
-                })
+    public Mono<ResponseEntity<Producto>> update(@PathVariable String id, @RequestBody Producto producto,
+                                                 @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return service.update(id, producto, ProductoETags.ifMatch(ifMatch))
                 .map(p -> ResponseEntity
                         .created(URI.create("/api/v1/productos".concat(p.getId())))
                         .contentType(MediaType.APPLICATION_JSON)
+                        .eTag(ProductoETags.of(p, null))
+                        .body(p))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @PatchMapping("/{id}")
+    public Mono<ResponseEntity<Producto>> patch(@PathVariable String id, @RequestBody Producto producto,
+                                                @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return service.patch(id, producto, ProductoETags.ifMatch(ifMatch))
+                .map(p -> ResponseEntity.ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .eTag(ProductoETags.of(p, null))
                         .body(p))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
     @DeleteMapping("/{id}")
-    public Mono<ResponseEntity<Void>> delete(@PathVariable String id) {
-        return service.findById(id)
-                .flatMap(p -> service.delete(p).then(Mono.just(new ResponseEntity<Void>(HttpStatus.NO_CONTENT))))
-                .defaultIfEmpty(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    public Mono<ResponseEntity<Void>> delete(@PathVariable String id,
+                                             @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return service.deleteById(id, ProductoETags.ifMatch(ifMatch))
+                .map(deleted -> new ResponseEntity<Void>(deleted > 0 ? HttpStatus.NO_CONTENT : HttpStatus.NOT_FOUND));
+    }
+
+    @DeleteMapping
+    public Mono<ResponseEntity<Map<String, Object>>> deleteMany(@RequestParam(required = false) List<String> ids,
+                                                                @RequestParam(required = false) String categoria,
+                                                                @RequestParam(defaultValue = "false") boolean fotos) {
+        Mono<Long> deleted;
+        if (ids != null && !ids.isEmpty()) {
+            deleted = service.deleteAllById(ids, fotos);
+        } else if (categoria != null) {
+            deleted = service.deleteByCategoria(categoria, fotos);
+        } else {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return deleted.map(n -> {
+            Map<String, Object> response = new HashMap<>();
+            response.put("eliminados", n);
+            response.put("timestamp", new Date());
+            return ResponseEntity.ok(response);
+        });
     }
 
     @PostMapping("/upload/{id}")
     public Mono<ResponseEntity<Producto>> upload(@PathVariable String id, @RequestPart FilePart file) {
-        return service.findById(id).flatMap(p -> {
-            p.setFoto(UUID.randomUUID() + "-" + file.filename()
-                    .replace(StringUtils.SPACE, StringUtils.EMPTY)
-                    .replace(":", StringUtils.EMPTY)
-                    .replace("\\", StringUtils.EMPTY));
-            return file.transferTo(new File(resources + p.getFoto())).then(service.save(p));
-        }).map(p -> ResponseEntity.ok(p))
+        return service.findById(id).flatMap(p -> photoStorage.store(file).flatMap(foto -> {
+            String previous = p.getFoto();
+            Producto cambios = Producto.copyOf(p);
+            cambios.setFoto(foto);
+            cambios.setMiniaturas(null);
+            return service.save(cambios)
+                    .onErrorResume(e -> photoStorage.release(foto).then(Mono.error(e)))
+                    .flatMap(saved -> photoStorage.release(previous).thenReturn(saved));
+        })).doOnNext(thumbnails::submit)
+                .map(p -> ResponseEntity.ok(p))
                 .defaultIfEmpty(ResponseEntity.notFound().build());
     }
 
@@ -120,11 +269,13 @@ public class ProductoController {
         if (producto.getCreateAt() == null) {
             producto.setCreateAt(new Date());
         }
-        producto.setFoto(UUID.randomUUID() + "-" + file.filename()
-                .replace(StringUtils.SPACE, StringUtils.EMPTY)
-                .replace(":", StringUtils.EMPTY)
-                .replace("\\", StringUtils.EMPTY));
-        return file.transferTo(new File(resources + producto.getFoto())).then(service.save(producto))
+        return photoStorage.store(file)
+                .flatMap(foto -> {
+                    producto.setFoto(foto);
+                    producto.setMiniaturas(null);
+                    return service.save(producto).onErrorResume(e -> photoStorage.release(foto).then(Mono.error(e)));
+                })
+                .doOnNext(thumbnails::submit)
                 .map(p -> ResponseEntity
                         .created(URI.create("/api/v1/productos".concat(p.getId())))
                         .contentType(MediaType.APPLICATION_JSON)
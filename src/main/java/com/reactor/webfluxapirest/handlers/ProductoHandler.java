@@ -1,52 +1,287 @@
 package com.reactor.webfluxapirest.handlers;
 
+import com.reactor.webfluxapirest.CodecConfig;
 import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.EstadisticasCategoria;
+import com.reactor.webfluxapirest.models.LoteProductos;
 import com.reactor.webfluxapirest.models.Producto;
+import com.reactor.webfluxapirest.models.ProductoEvento;
+import com.reactor.webfluxapirest.models.ResultadoCarga;
 import com.reactor.webfluxapirest.services.IProductService;
+import com.reactor.webfluxapirest.services.PhotoStorage;
+import com.reactor.webfluxapirest.services.ProductEventPublisher;
+import com.reactor.webfluxapirest.services.ProductoETags;
+import com.reactor.webfluxapirest.services.ProductoFields;
+import com.reactor.webfluxapirest.services.ProductoFilter;
+import com.reactor.webfluxapirest.services.ThumbnailPipeline;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.http.codec.multipart.FormFieldPart;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
 
 import java.io.File;
 import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.UUID;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.springframework.web.reactive.function.BodyInserters.fromValue;
 
 @Component
 public class ProductoHandler {
 
+    private static final List<MediaType> READ_TYPES =
+            List.of(MediaType.APPLICATION_JSON, CodecConfig.APPLICATION_SMILE, MediaType.APPLICATION_CBOR);
+    private static final List<MediaType> STREAM_TYPES =
+            List.of(CodecConfig.APPLICATION_NDJSON, CodecConfig.APPLICATION_STREAM_SMILE);
+    private static final List<MediaType> QUERY_TYPES = List.of(MediaType.APPLICATION_JSON, CodecConfig.APPLICATION_SMILE,
+            MediaType.APPLICATION_CBOR, CodecConfig.APPLICATION_NDJSON, CodecConfig.APPLICATION_STREAM_SMILE);
+
     @Autowired
     private IProductService service;
     @Autowired
     private Validator validator;
+    @Autowired
+    private PhotoStorage photoStorage;
+    @Autowired
+    private ThumbnailPipeline thumbnails;
+    @Autowired
+    private ProductEventPublisher eventos;
 
     @Value("${resources}")
     private String resources;
 
+    @Value("${productos.page.default-limit}")
+    private int defaultLimit;
+
+    @Value("${productos.page.max-limit}")
+    private int maxLimit;
+
+    @Value("${search.default-limit}")
+    private int searchDefaultLimit;
+
+    @Value("${search.max-limit}")
+    private int searchMaxLimit;
+
+    @Value("${productos.bulk.batch-size}")
+    private int bulkBatchSize;
+
+    @Value("${productos.bulk.concurrency}")
+    private int bulkConcurrency;
+
+    @Value("${productos.lote.max-size}")
+    private int loteMaxSize;
+
     public Mono<ServerResponse> list(ServerRequest request) {
+        String after = request.queryParam("after").orElse(null);
+        if (after != null && !ObjectId.isValid(after)) {
+            return ServerResponse.badRequest().build();
+        }
+        int size = request.queryParam("limit")
+                .filter(StringUtils::isNumeric)
+                .map(Integer::parseInt)
+                .map(l -> Math.max(1, Math.min(l, maxLimit)))
+                .orElse(defaultLimit);
+        Set<String> campos;
+        try {
+            campos = ProductoFields.parse(request.queryParam("fields").orElse(null));
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().body(fromValue(List.of(e.getMessage())));
+        }
+
+        return service.findPage(after, size + 1, campos)
+                .collectList()
+                .flatMap(all -> {
+                    List<Producto> list = all.size() > size ? all.subList(0, size) : all;
+                    String etag = ProductoETags.of(list, campos);
+                    return request.checkNotModified(etag).switchIfEmpty(Mono.defer(() -> {
+                        ServerResponse.BodyBuilder response = ServerResponse.ok()
+                                .contentType(negotiate(request, READ_TYPES))
+                                .eTag(etag);
+                        if (all.size() > size) {
+                            String next = list.get(size - 1).getId();
+                            response.header("X-Next-Cursor", next)
+                                    .header(HttpHeaders.LINK, "</api/v2/productos?after=" + next + "&limit=" + size + ">; rel=\"next\"");
+                        }
+                        return response.body(fromValue(campos == null ? list : list.stream()
+                                .map(p -> ProductoFields.project(p, campos))
+                                .collect(Collectors.toList())));
+                    }));
+                });
+    }
+
+    public Mono<ServerResponse> stream(ServerRequest request) {
+        String after = request.queryParam("after").orElse(null);
+        if (after != null && !ObjectId.isValid(after)) {
+            return ServerResponse.badRequest().build();
+        }
         return ServerResponse.ok()
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(service.findAll(), Producto.class);
+                .contentType(negotiate(request, STREAM_TYPES))
+                .body(service.streamAll(after), Producto.class);
+    }
+
+    public Mono<ServerResponse> events(ServerRequest request) {
+        Flux<ServerSentEvent<ProductoEvento>> events = eventos.events()
+                .map(e -> ServerSentEvent.builder(e).event(e.getTipo()).id(e.getId()).build());
+        // Comentario periódico para que proxies y balanceadores no cierren la conexión inactiva
+        Flux<ServerSentEvent<ProductoEvento>> heartbeat = Flux.interval(Duration.ofSeconds(15))
+                .map(i -> ServerSentEvent.<ProductoEvento>builder().comment("keep-alive").build());
+        return ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(Flux.merge(events, heartbeat), new ParameterizedTypeReference<ServerSentEvent<ProductoEvento>>() {
+                });
+    }
+
+    public Mono<ServerResponse> search(ServerRequest request) {
+        Optional<String> q = request.queryParam("q").filter(StringUtils::isNotBlank);
+        if (q.isEmpty()) {
+            return ServerResponse.badRequest().build();
+        }
+        int limit = request.queryParam("limit")
+                .filter(StringUtils::isNumeric)
+                .map(Integer::parseInt)
+                .map(l -> Math.max(1, Math.min(l, searchMaxLimit)))
+                .orElse(searchDefaultLimit);
+        return ServerResponse.ok()
+                .contentType(negotiate(request, READ_TYPES))
+                .body(service.search(q.get(), limit), Producto.class);
+    }
+
+    /**
+     * Con Accept NDJSON o stream+x-jackson-smile cada producto se escribe según lo devuelve Mongo.
+     */
+    public Mono<ServerResponse> query(ServerRequest request) {
+        ProductoFilter filter;
+        Set<String> campos;
+        try {
+            filter = ProductoFilter.parse(request.queryParam("categoria").orElse(null),
+                    request.queryParam("precioMin").orElse(null),
+                    request.queryParam("precioMax").orElse(null),
+                    request.queryParam("desde").orElse(null),
+                    request.queryParam("hasta").orElse(null),
+                    request.queryParam("sort").orElse(null));
+            campos = ProductoFields.parse(request.queryParam("fields").orElse(null));
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().body(fromValue(List.of(e.getMessage())));
+        }
+        int size = request.queryParam("limit")
+                .filter(StringUtils::isNumeric)
+                .map(Integer::parseInt)
+                .map(l -> Math.max(1, Math.min(l, maxLimit)))
+                .orElse(defaultLimit);
+        Flux<Producto> productos = service.findByFilter(filter, size, campos);
+        ServerResponse.BodyBuilder response = ServerResponse.ok().contentType(negotiate(request, QUERY_TYPES));
+        return campos == null
+                ? response.body(productos, Producto.class)
+                : response.body(productos.map(p -> ProductoFields.project(p, campos)), new ParameterizedTypeReference<Map<String, Object>>() {
+                });
+    }
+
+    public Mono<ServerResponse> findMany(ServerRequest request) {
+        return findMany(request, request.queryParams().getOrDefault("ids", List.of()));
+    }
+
+    public Mono<ServerResponse> findManyPost(ServerRequest request) {
+        return request.bodyToMono(new ParameterizedTypeReference<List<String>>() {
+        })
+                .defaultIfEmpty(List.of())
+                .flatMap(ids -> findMany(request, ids));
+    }
+
+    private Mono<ServerResponse> findMany(ServerRequest request, List<String> values) {
+        Set<String> ids;
+        try {
+            ids = LoteProductos.ids(values, loteMaxSize);
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().body(fromValue(List.of(e.getMessage())));
+        }
+        return service.findAllById(ids)
+                .collectMap(Producto::getId)
+                .flatMap(encontrados -> ServerResponse.ok()
+                        .contentType(negotiate(request, READ_TYPES))
+                        .body(fromValue(LoteProductos.of(ids, encontrados))));
+    }
+
+    public Mono<ServerResponse> stats(ServerRequest request) {
+        return ServerResponse.ok()
+                .contentType(negotiate(request, READ_TYPES))
+                .body(service.findEstadisticasCategoria(), EstadisticasCategoria.class);
     }
 
     public Mono<ServerResponse> show(ServerRequest request) {
+        Set<String> campos;
+        try {
+            campos = ProductoFields.parse(request.queryParam("fields").orElse(null));
+        } catch (IllegalArgumentException e) {
+            return ServerResponse.badRequest().body(fromValue(List.of(e.getMessage())));
+        }
+        return service.findById(request.pathVariable("id"), campos)
+                .flatMap(p -> {
+                    String etag = ProductoETags.of(p, campos);
+                    return request.checkNotModified(etag).switchIfEmpty(Mono.defer(() -> ServerResponse.ok()
+                            .contentType(negotiate(request, READ_TYPES))
+                            .eTag(etag)
+                            .body(fromValue(campos == null ? p : ProductoFields.project(p, campos)))));
+                })
+                .switchIfEmpty(ServerResponse.notFound().build());
+    }
+
+    public Mono<ServerResponse> foto(ServerRequest request) {
+        Optional<String> size = request.queryParam("size");
+        if (size.isPresent() && !thumbnails.supports(size.get())) {
+            return ServerResponse.badRequest().build();
+        }
         return service.findById(request.pathVariable("id"))
-                .flatMap(p -> ServerResponse.ok()
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body(fromValue(p)))
+                .filter(p -> p.getFoto() != null)
+                // Mientras la miniatura no esté generada se sirve el original
+                .map(p -> size.map(s -> p.getMiniaturas() == null ? null : p.getMiniaturas().get(s)).orElse(p.getFoto()))
+                .flatMap(name -> Mono.fromCallable(() -> new File(resources + name))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .filter(File::isFile))
+                .flatMap(file -> {
+                    Instant lastModified = Instant.ofEpochMilli(file.lastModified()).truncatedTo(ChronoUnit.SECONDS);
+                    String etag = "\"" + Long.toHexString(file.lastModified()) + "-" + Long.toHexString(file.length()) + "\"";
+                    Resource photo = new FileSystemResource(file);
+                    // ResourceHttpMessageWriter resuelve la cabecera Range y escribe el fichero con sendfile (zero-copy)
+                    return request.checkNotModified(lastModified, etag)
+                            .switchIfEmpty(Mono.defer(() -> ServerResponse.ok()
+                                    .eTag(etag)
+                                    .lastModified(lastModified)
+                                    .contentType(MediaTypeFactory.getMediaType(photo).orElse(MediaType.APPLICATION_OCTET_STREAM))
+                                    .body(BodyInserters.fromResource(photo))));
+                })
                 .switchIfEmpty(ServerResponse.notFound().build());
     }
 
@@ -74,32 +309,118 @@ public class ProductoHandler {
         });
     }
 
+    public Mono<ServerResponse> bulk(ServerRequest request) {
+
+        Flux<ResultadoCarga> resultados = request.bodyToFlux(Producto.class)
+                .index()
+                .buffer(bulkBatchSize)
+                .flatMapSequential(this::insertBatch, bulkConcurrency);
+
+        MediaType type = request.headers().accept().stream().anyMatch(CodecConfig.APPLICATION_NDJSON::equalsTypeAndSubtype)
+                ? CodecConfig.APPLICATION_NDJSON
+                : MediaType.APPLICATION_JSON;
+        return ServerResponse.ok()
+                .contentType(type)
+                .body(resultados, ResultadoCarga.class);
+    }
+
+    private Flux<ResultadoCarga> insertBatch(List<Tuple2<Long, Producto>> batch) {
+
+        List<ResultadoCarga> invalid = new ArrayList<>();
+        List<Tuple2<Long, Producto>> valid = new ArrayList<>();
+
+        for (Tuple2<Long, Producto> item : batch) {
+            Producto p = item.getT2();
+            Errors errors = new BeanPropertyBindingResult(p, Producto.class.getName());
+            validator.validate(p, errors);
+            if (errors.hasErrors()) {
+                invalid.add(ResultadoCarga.error(item.getT1(), errors.getFieldErrors().stream()
+                        .map(fieldError -> "El campo " + fieldError.getField() + " " + fieldError.getDefaultMessage())
+                        .collect(Collectors.toList())));
+            } else {
+                if (p.getCreateAt() == null) {
+                    p.setCreateAt(new Date());
+                }
+                valid.add(item);
+            }
+        }
+
+        // Un error que no es de un documento concreto (conexión, timeout...) deja el lote sin confirmar
+        Flux<ResultadoCarga> inserted = service.insertAll(valid.stream().map(Tuple2::getT2).collect(Collectors.toList()))
+                .flatMapIterable(errors -> IntStream.range(0, valid.size())
+                        .mapToObj(i -> errors.containsKey(i)
+                                ? ResultadoCarga.error(valid.get(i).getT1(), List.of(errors.get(i)))
+                                : ResultadoCarga.creado(valid.get(i).getT1(), valid.get(i).getT2().getId()))
+                        .collect(Collectors.toList()))
+                .onErrorResume(e -> Flux.fromIterable(valid)
+                        .map(item -> ResultadoCarga.error(item.getT1(), List.of(String.valueOf(e.getMessage())))));
+
+        // Cada resultado sale en la posición de su producto; flatMapSequential mantiene el orden entre lotes
+        return valid.isEmpty()
+                ? Flux.fromIterable(invalid)
+                : Flux.fromIterable(invalid).concatWith(inserted).sort(Comparator.comparingLong(ResultadoCarga::getIndice));
+    }
+
     public Mono<ServerResponse> update(ServerRequest request) {
 
         String id = request.pathVariable("id");
         Mono<Producto> product = request.bodyToMono(Producto.class);
 
-        Mono<Producto> productDB = service.findById(id);
+        return product.flatMap(req -> service.update(id, req, ProductoETags.ifMatch(ifMatch(request))))
+                .flatMap(p -> ServerResponse.created(URI.create("/api/v2/productos/".concat(p.getId())))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .eTag(ProductoETags.of(p, null))
+                        .body(fromValue(p)))
+                .switchIfEmpty(ServerResponse.notFound().build())
+                .onErrorResume(OptimisticLockingFailureException.class, e -> versionConflict(request));
+    }
+
+    public Mono<ServerResponse> patch(ServerRequest request) {
 
-        return productDB.zipWith(product, (db, req) -> {
-            db.setNombre(req.getNombre());
-            db.setPrecio(req.getPrecio());
-            db.setCategoria(req.getCategoria());
-            return db;
-        }).flatMap(p -> ServerResponse.created(URI.create("/api/v2/productos/".concat(p.getId())))
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(service.save(p), Producto.class))
-                .switchIfEmpty(ServerResponse.notFound().build());
+        String id = request.pathVariable("id");
+        Mono<Producto> product = request.bodyToMono(Producto.class);
+
+        return product.flatMap(req -> service.patch(id, req, ProductoETags.ifMatch(ifMatch(request))))
+                .flatMap(p -> ServerResponse.ok()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .eTag(ProductoETags.of(p, null))
+                        .body(fromValue(p)))
+                .switchIfEmpty(ServerResponse.notFound().build())
+                .onErrorResume(OptimisticLockingFailureException.class, e -> versionConflict(request));
     }
 
 
     public Mono<ServerResponse> delete(ServerRequest request) {
 
         String id = request.pathVariable("id");
-        Mono<Producto> productDB = service.findById(id);
 
-        return productDB.flatMap(p -> service.delete(p).then(ServerResponse.noContent().build()))
-                .switchIfEmpty(ServerResponse.notFound().build());
+        return service.deleteById(id, ProductoETags.ifMatch(ifMatch(request)))
+                .flatMap(deleted -> deleted > 0
+                        ? ServerResponse.noContent().build()
+                        : ServerResponse.notFound().build())
+                .onErrorResume(OptimisticLockingFailureException.class, e -> versionConflict(request));
+    }
+
+    public Mono<ServerResponse> deleteMany(ServerRequest request) {
+
+        List<String> ids = request.queryParams().getOrDefault("ids", List.of()).stream()
+                .flatMap(v -> Arrays.stream(v.split(",")))
+                .filter(StringUtils::isNotBlank)
+                .collect(Collectors.toList());
+        Optional<String> categoria = request.queryParam("categoria");
+        boolean fotos = request.queryParam("fotos").map(Boolean::parseBoolean).orElse(false);
+
+        Mono<Long> deleted;
+        if (!ids.isEmpty()) {
+            deleted = service.deleteAllById(ids, fotos);
+        } else if (categoria.isPresent()) {
+            deleted = service.deleteByCategoria(categoria.get(), fotos);
+        } else {
+            return ServerResponse.badRequest().build();
+        }
+        return deleted.flatMap(n -> ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(fromValue(Map.of("eliminados", n))));
     }
 
     public Mono<ServerResponse> upload(ServerRequest request) {
@@ -108,16 +429,20 @@ public class ProductoHandler {
         return request.multipartData()
                 .map(m -> m.toSingleValueMap().get("file"))
                 .cast(FilePart.class)
-                .flatMap(file -> service.findById(id).flatMap(p -> {
-                    p.setFoto(UUID.randomUUID() + "-" + file.filename()
-                            .replace(StringUtils.SPACE, StringUtils.EMPTY)
-                            .replace(":", StringUtils.EMPTY)
-                            .replace("\\", StringUtils.EMPTY));
-                    return file.transferTo(new File(resources + p.getFoto())).then(service.save(p));
-                })).flatMap(p -> ServerResponse.created(URI.create("/api/v2/productos/".concat(p.getId())))
+                .flatMap(file -> service.findById(id).flatMap(p -> photoStorage.store(file).flatMap(foto -> {
+                    String previous = p.getFoto();
+                    Producto cambios = Producto.copyOf(p);
+                    cambios.setFoto(foto);
+                    cambios.setMiniaturas(null);
+                    return service.save(cambios)
+                            .onErrorResume(e -> photoStorage.release(foto).then(Mono.error(e)))
+                            .flatMap(saved -> photoStorage.release(previous).thenReturn(saved));
+                }))).doOnNext(thumbnails::submit)
+                .flatMap(p -> ServerResponse.created(URI.create("/api/v2/productos/".concat(p.getId())))
                         .contentType(MediaType.APPLICATION_JSON)
                         .body(fromValue(p)))
-                .switchIfEmpty(ServerResponse.notFound().build());
+                .switchIfEmpty(ServerResponse.notFound().build())
+                .onErrorResume(OptimisticLockingFailureException.class, e -> versionConflict(request));
     }
 
     public Mono<ServerResponse> createWithPhoto(ServerRequest request) {
@@ -137,15 +462,46 @@ public class ProductoHandler {
                 .map(m -> m.toSingleValueMap().get("file"))
                 .cast(FilePart.class)
                 .flatMap(file -> product
-                        .flatMap(p -> {
-                            p.setFoto(UUID.randomUUID() + "-" + file.filename()
-                                    .replace(StringUtils.SPACE, StringUtils.EMPTY)
-                                    .replace(":", StringUtils.EMPTY)
-                                    .replace("\\", StringUtils.EMPTY));
+                        .flatMap(p -> photoStorage.store(file).flatMap(foto -> {
+                            p.setFoto(foto);
                             p.setCreateAt(new Date());
-                            return file.transferTo(new File(resources + p.getFoto())).then(service.save(p));
-                        })).flatMap(p -> ServerResponse.created(URI.create("/api/v2/productos/".concat(p.getId())))
+                            return service.save(p).onErrorResume(e -> photoStorage.release(foto).then(Mono.error(e)));
+                        }))).doOnNext(thumbnails::submit)
+                .flatMap(p -> ServerResponse.created(URI.create("/api/v2/productos/".concat(p.getId())))
                         .contentType(MediaType.APPLICATION_JSON)
                         .body(fromValue(p)));
     }
+
+    /**
+     * Las etiquetas pueden llegar en varias cabeceras If-Match; se juntan como una única lista.
+     */
+    private static String ifMatch(ServerRequest request) {
+        List<String> values = request.headers().header(HttpHeaders.IF_MATCH);
+        return values.isEmpty() ? null : String.join(",", values);
+    }
+
+    /**
+     * 412 si el cliente mandó If-Match con una versión que ya no es la actual; 409 si otra escritura se adelantó
+     * entre la lectura y el guardado sin que el cliente pusiera condición.
+     */
+    private static Mono<ServerResponse> versionConflict(ServerRequest request) {
+        return ServerResponse.status(ifMatch(request) == null ? HttpStatus.CONFLICT : HttpStatus.PRECONDITION_FAILED).build();
+    }
+
+    /**
+     * Los handlers funcionales no negocian el Content-Type: se escoge aquí el primero de {@code producible}
+     * que acepte el cliente, por orden de calidad, y JSON (o NDJSON) si no pide ninguno.
+     */
+    private static MediaType negotiate(ServerRequest request, List<MediaType> producible) {
+        List<MediaType> accept = new ArrayList<>(request.headers().accept());
+        MediaType.sortBySpecificityAndQuality(accept);
+        for (MediaType acceptable : accept) {
+            for (MediaType type : producible) {
+                if (acceptable.isCompatibleWith(type)) {
+                    return type;
+                }
+            }
+        }
+        return producible.get(0);
+    }
 }
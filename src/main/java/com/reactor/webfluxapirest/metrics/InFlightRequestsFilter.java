@@ -0,0 +1,42 @@
+package com.reactor.webfluxapirest.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Peticiones en curso por versión de API (http.server.requests.active{api}).
+ * Latencias y códigos de estado por ruta los registra ya http.server.requests.
+ */
+@Component
+public class InFlightRequestsFilter implements WebFilter {
+
+    private final AtomicInteger v1;
+    private final AtomicInteger v2;
+
+    public InFlightRequestsFilter(MeterRegistry registry) {
+        this.v1 = registry.gauge("http.server.requests.active", Tags.of("api", "v1"), new AtomicInteger());
+        this.v2 = registry.gauge("http.server.requests.active", Tags.of("api", "v2"), new AtomicInteger());
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        String path = exchange.getRequest().getPath().value();
+        AtomicInteger active = path.startsWith("/api/v1/") ? v1
+                : path.startsWith("/api/v2/") ? v2
+                : null;
+        if (active == null) {
+            return chain.filter(exchange);
+        }
+        return Mono.defer(() -> {
+            active.incrementAndGet();
+            return chain.filter(exchange).doFinally(signal -> active.decrementAndGet());
+        });
+    }
+}
@@ -0,0 +1,68 @@
+package com.reactor.webfluxapirest.metrics;
+
+import com.mongodb.event.CommandEvent;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencia de cada comando que el driver envía a Mongo (mongo.commands{collection, operation, status}), medida por
+ * el propio driver desde que escribe el comando hasta que recibe la respuesta: no incluye la espera por conexión
+ * (mongo.pool.wait) ni lo que tarde la aplicación en consumir el resultado.
+ */
+@Component
+public class MongoCommandMetrics implements CommandListener {
+
+    private static final String NONE = "none";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    // La colección sólo viene en el comando; se guarda hasta que llega su resultado (requestId es único en el proceso)
+    private final Map<Integer, String> collections = new ConcurrentHashMap<>();
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        collections.put(event.getRequestId(), collection(event.getCommand(), event.getCommandName()));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        record(event, event.getElapsedTime(TimeUnit.NANOSECONDS), "success");
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        record(event, event.getElapsedTime(TimeUnit.NANOSECONDS), "failed");
+    }
+
+    private void record(CommandEvent event, long nanos, String status) {
+        String collection = collections.remove(event.getRequestId());
+        Timer.builder("mongo.commands")
+                .tag("collection", collection == null ? NONE : collection)
+                .tag("operation", event.getCommandName())
+                .tag("status", status)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Los comandos sobre una colección la llevan como valor de su primera clave ({find: "productos"}), salvo getMore
+     * que la lleva en "collection". Los de administración (ping, isMaster...) quedan como "none".
+     */
+    private static String collection(BsonDocument command, String name) {
+        BsonValue value = command.get("getMore".equals(name) ? "collection" : name);
+        return value != null && value.isString() ? value.asString().getValue() : NONE;
+    }
+}
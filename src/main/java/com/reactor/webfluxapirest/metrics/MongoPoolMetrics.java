@@ -0,0 +1,143 @@
+package com.reactor.webfluxapirest.metrics;
+
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolClosedEvent;
+import com.mongodb.event.ConnectionPoolCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Estado del pool de conexiones del driver por servidor (etiqueta server): mongo.pool.size (abiertas),
+ * mongo.pool.checkedout (en uso), mongo.pool.max, mongo.pool.utilization (en uso / max) y mongo.pool.waiting
+ * (peticiones esperando conexión); mongo.pool.wait (timer) y mongo.pool.checkout.failed (contador, p. ej. por
+ * agotar mongo.pool.max-wait).
+ * <p>
+ * Los eventos del driver no identifican qué petición recibe cada conexión, así que la espera se empareja en orden
+ * de llegada: la suma y la media son exactas aunque un valor concreto pueda corresponder a otra petición.
+ */
+@Component
+public class MongoPoolMetrics implements ConnectionPoolListener {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final Map<ServerId, Pool> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public void connectionPoolCreated(ConnectionPoolCreatedEvent event) {
+        pools.computeIfAbsent(event.getServerId(), id -> new Pool(id, event.getSettings().getMaxSize()));
+    }
+
+    @Override
+    public void connectionPoolClosed(ConnectionPoolClosedEvent event) {
+        Pool pool = pools.remove(event.getServerId());
+        if (pool != null) {
+            pool.meters.forEach(registry::remove);
+        }
+    }
+
+    @Override
+    public void connectionCreated(ConnectionCreatedEvent event) {
+        Pool pool = pools.get(event.getConnectionId().getServerId());
+        if (pool != null) {
+            pool.size.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void connectionClosed(ConnectionClosedEvent event) {
+        Pool pool = pools.get(event.getConnectionId().getServerId());
+        if (pool != null) {
+            pool.size.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+        Pool pool = pools.get(event.getServerId());
+        if (pool != null) {
+            pool.waitStarts.add(System.nanoTime());
+            pool.waiting.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+        Pool pool = pools.get(event.getConnectionId().getServerId());
+        if (pool != null) {
+            pool.checkedOut.incrementAndGet();
+            pool.waited();
+        }
+    }
+
+    @Override
+    public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+        Pool pool = pools.get(event.getServerId());
+        if (pool != null) {
+            pool.failed.increment();
+            pool.waited();
+        }
+    }
+
+    @Override
+    public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+        Pool pool = pools.get(event.getConnectionId().getServerId());
+        if (pool != null) {
+            pool.checkedOut.decrementAndGet();
+        }
+    }
+
+    private class Pool {
+        private final int maxSize;
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicInteger checkedOut = new AtomicInteger();
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final Queue<Long> waitStarts = new ConcurrentLinkedQueue<>();
+        private final Timer wait;
+        private final Counter failed;
+        private final List<Meter> meters;
+
+        Pool(ServerId id, int maxSize) {
+            this.maxSize = maxSize;
+            Tags tags = Tags.of("server", id.getAddress().toString());
+            wait = Timer.builder("mongo.pool.wait").tags(tags).register(registry);
+            failed = Counter.builder("mongo.pool.checkout.failed").tags(tags).register(registry);
+            meters = List.of(wait, failed,
+                    Gauge.builder("mongo.pool.size", size, AtomicInteger::get).tags(tags).register(registry),
+                    Gauge.builder("mongo.pool.checkedout", checkedOut, AtomicInteger::get).tags(tags).register(registry),
+                    Gauge.builder("mongo.pool.waiting", waiting, AtomicInteger::get).tags(tags).register(registry),
+                    Gauge.builder("mongo.pool.max", this, p -> p.maxSize).tags(tags).register(registry),
+                    Gauge.builder("mongo.pool.utilization", this, p -> p.maxSize == 0 ? 0 : (double) p.checkedOut.get() / p.maxSize)
+                            .tags(tags).register(registry));
+        }
+
+        void waited() {
+            Long start = waitStarts.poll();
+            if (start != null) {
+                waiting.decrementAndGet();
+                wait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.reactor.webfluxapirest.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Mide cada llamada a IProductService desde la suscripción hasta que el publisher termina
+ * (productos.service{method, outcome}), que es cuando realmente se hace el trabajo contra Mongo.
+ */
+@Aspect
+@Component
+public class ServiceTimingAspect {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Around("execution(* com.reactor.webfluxapirest.services.IProductService.*(..))")
+    public Object time(ProceedingJoinPoint pjp) throws Throwable {
+        String method = pjp.getSignature().getName();
+        Object result = pjp.proceed();
+        if (result instanceof Mono) {
+            Mono<?> mono = (Mono<?>) result;
+            return Mono.defer(() -> {
+                Timer.Sample sample = Timer.start(registry);
+                return mono.doFinally(signal -> sample.stop(timer(method, signal)));
+            });
+        }
+        if (result instanceof Flux) {
+            Flux<?> flux = (Flux<?>) result;
+            return Flux.defer(() -> {
+                Timer.Sample sample = Timer.start(registry);
+                return flux.doFinally(signal -> sample.stop(timer(method, signal)));
+            });
+        }
+        return result;
+    }
+
+    private Timer timer(String method, SignalType signal) {
+        String outcome = signal == SignalType.ON_ERROR ? "error" : signal == SignalType.CANCEL ? "cancelled" : "success";
+        return Timer.builder("productos.service")
+                .tag("method", method)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
@@ -0,0 +1,23 @@
+package com.reactor.webfluxapirest.models;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Date;
+
+/**
+ * Resumen de los productos de una categoría: cuántos hay, precio mínimo, medio y máximo y el alta más reciente.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class EstadisticasCategoria {
+
+    private Categoria categoria;
+    private long productos;
+    private Double precioMin;
+    private Double precioMedio;
+    private Double precioMax;
+    private Date ultimoCreateAt;
+}
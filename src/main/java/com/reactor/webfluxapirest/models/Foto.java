@@ -0,0 +1,18 @@
+package com.reactor.webfluxapirest.models;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Getter
+@Setter
+@Document(collection = "fotos")
+@NoArgsConstructor
+public class Foto {
+
+    @Id
+    private String id;
+    private long referencias;
+}
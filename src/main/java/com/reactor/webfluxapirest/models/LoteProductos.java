@@ -0,0 +1,60 @@
+package com.reactor.webfluxapirest.models;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Respuesta de la lectura por lotes: los productos encontrados en el orden en que se pidieron sus ids y los
+ * ids que no existen.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class LoteProductos {
+
+    private List<Producto> productos;
+    private List<String> noEncontrados;
+
+    /**
+     * Ids pedidos sin repetir y en su orden; cada valor puede traer varios separados por comas.
+     */
+    public static Set<String> ids(Collection<String> values, int maxSize) {
+        Set<String> ids = values.stream()
+                .flatMap(v -> Arrays.stream(v.split(",")))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (ids.isEmpty()) {
+            throw new IllegalArgumentException("Hay que indicar al menos un id");
+        }
+        if (ids.size() > maxSize) {
+            throw new IllegalArgumentException("Como máximo se pueden pedir " + maxSize + " ids, se han pedido " + ids.size());
+        }
+        return ids;
+    }
+
+    public static LoteProductos of(Collection<String> ids, Map<String, Producto> encontrados) {
+        LoteProductos lote = new LoteProductos();
+        lote.setProductos(new ArrayList<>(encontrados.size()));
+        lote.setNoEncontrados(new ArrayList<>());
+        for (String id : ids) {
+            Producto p = encontrados.get(id);
+            if (p != null) {
+                lote.getProductos().add(p);
+            } else {
+                lote.getNoEncontrados().add(id);
+            }
+        }
+        return lote;
+    }
+}
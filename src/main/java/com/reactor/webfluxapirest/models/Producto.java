@@ -4,6 +4,7 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.format.annotation.DateTimeFormat;
 
@@ -11,6 +12,8 @@ import javax.validation.Valid;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 @Document(collection = "productos")
 @Getter
@@ -32,6 +35,14 @@ public class Producto {
 
     private String foto;
 
+    /**
+     * Nombre de fichero de cada miniatura de {@code foto} por tamaño; null hasta que ThumbnailPipeline las genera.
+     */
+    private Map<String, String> miniaturas;
+
+    @Version
+    private Long version;
+
     public Producto(String nombre, Double precio) {
         this.nombre = nombre;
         this.precio = precio;
@@ -41,4 +52,17 @@ public class Producto {
         this(nombre, precio);
         this.categoria = categoria;
     }
+
+    /**
+     * Copia para modificar sin tocar la instancia original, que puede ser la que guarda la caché.
+     */
+    public static Producto copyOf(Producto other) {
+        Producto copy = new Producto(other.nombre, other.precio, other.categoria);
+        copy.id = other.id;
+        copy.createAt = other.createAt;
+        copy.foto = other.foto;
+        copy.miniaturas = other.miniaturas == null ? null : new HashMap<>(other.miniaturas);
+        copy.version = other.version;
+        return copy;
+    }
 }
@@ -0,0 +1,31 @@
+package com.reactor.webfluxapirest.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.Date;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductoEvento {
+
+    public static final String CREADO = "CREADO";
+    public static final String ACTUALIZADO = "ACTUALIZADO";
+    public static final String ELIMINADO = "ELIMINADO";
+
+    private String tipo;
+    private String id;
+    private Producto producto;
+    private Date timestamp;
+
+    public ProductoEvento(String tipo, String id, Producto producto) {
+        this.tipo = tipo;
+        this.id = id;
+        this.producto = producto;
+        this.timestamp = new Date();
+    }
+}
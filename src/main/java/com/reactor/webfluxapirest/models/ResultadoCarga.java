@@ -0,0 +1,39 @@
+package com.reactor.webfluxapirest.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ResultadoCarga {
+
+    public static final String CREADO = "CREADO";
+    public static final String ERROR = "ERROR";
+
+    private long indice;
+    private String id;
+    private String estado;
+    private List<String> errores;
+
+    public static ResultadoCarga creado(long indice, String id) {
+        ResultadoCarga r = new ResultadoCarga();
+        r.setIndice(indice);
+        r.setId(id);
+        r.setEstado(CREADO);
+        return r;
+    }
+
+    public static ResultadoCarga error(long indice, List<String> errores) {
+        ResultadoCarga r = new ResultadoCarga();
+        r.setIndice(indice);
+        r.setEstado(ERROR);
+        r.setErrores(errores);
+        return r;
+    }
+}
@@ -2,9 +2,13 @@ package com.reactor.webfluxapirest.repository;
 
 
 import com.reactor.webfluxapirest.models.Producto;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @Repository
@@ -14,4 +18,10 @@ public interface ProductoRepository extends ReactiveMongoRepository<Producto, St
 
     @Query("{'nombre' :?0}")
     Mono<Producto> queryByNombre(String nombre);
+
+    Flux<Producto> findAllBy(Pageable pageable);
+
+    Flux<Producto> findByIdGreaterThan(ObjectId id, Pageable pageable);
+
+    Flux<Producto> findByIdGreaterThan(ObjectId id, Sort sort);
 }
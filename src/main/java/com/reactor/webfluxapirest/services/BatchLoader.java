@@ -0,0 +1,97 @@
+package com.reactor.webfluxapirest.services;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Agrupa en una única consulta las claves que se piden mientras otra consulta del mismo loader está en curso
+ * (o hasta llenar un lote). Una petición que llega sin nada en curso sale en el acto, así que una lectura
+ * aislada no espera a nadie; las que coinciden con ella salen juntas en cuanto termina. Una clave que ya
+ * está pendiente o en curso comparte ese resultado.
+ */
+public class BatchLoader<K, V> {
+
+    private final Function<Set<K>, Flux<V>> batchFunction;
+    private final Function<V, K> keyExtractor;
+    private final int maxBatchSize;
+
+    // Protegidos por this
+    private Map<K, CompletableFuture<V>> pending = new HashMap<>();
+    private final Map<K, CompletableFuture<V>> inFlightKeys = new HashMap<>();
+    private int inFlight;
+
+    public BatchLoader(Function<Set<K>, Flux<V>> batchFunction, Function<V, K> keyExtractor, int maxBatchSize) {
+        this.batchFunction = batchFunction;
+        this.keyExtractor = keyExtractor;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public Mono<V> load(K key) {
+        return Mono.defer(() -> Mono.fromFuture(enqueue(key)));
+    }
+
+    private CompletableFuture<V> enqueue(K key) {
+        Map<K, CompletableFuture<V>> batch = null;
+        CompletableFuture<V> future;
+        synchronized (this) {
+            future = pending.get(key);
+            if (future == null) {
+                future = inFlightKeys.get(key);
+            }
+            if (future == null) {
+                future = new CompletableFuture<>();
+                pending.put(key, future);
+                if (inFlight == 0 || pending.size() >= maxBatchSize) {
+                    batch = take();
+                }
+            }
+        }
+        if (batch != null) {
+            dispatch(batch);
+        }
+        return future;
+    }
+
+    private Map<K, CompletableFuture<V>> take() {
+        Map<K, CompletableFuture<V>> batch = pending;
+        pending = new HashMap<>();
+        inFlightKeys.putAll(batch);
+        inFlight++;
+        return batch;
+    }
+
+    private void dispatch(Map<K, CompletableFuture<V>> batch) {
+        Flux.defer(() -> batchFunction.apply(batch.keySet()))
+                .collectMap(keyExtractor)
+                .subscribe(found -> {
+                            next(batch);
+                            batch.forEach((key, future) -> future.complete(found.get(key)));
+                        },
+                        e -> {
+                            next(batch);
+                            batch.values().forEach(future -> future.completeExceptionally(e));
+                        });
+    }
+
+    /**
+     * Al terminar una consulta sale lo que se ha ido acumulando mientras tanto.
+     */
+    private void next(Map<K, CompletableFuture<V>> done) {
+        Map<K, CompletableFuture<V>> batch;
+        synchronized (this) {
+            done.forEach(inFlightKeys::remove);
+            inFlight--;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = take();
+        }
+        dispatch(batch);
+    }
+}
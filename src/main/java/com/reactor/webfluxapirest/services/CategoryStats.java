@@ -0,0 +1,291 @@
+package com.reactor.webfluxapirest.services;
+
+import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.EstadisticasCategoria;
+import com.reactor.webfluxapirest.models.Producto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Estadísticas por categoría mantenidas en memoria: el servicio llama a {@link #put(Producto)} y
+ * {@link #remove(String)} en cada escritura, de modo que leerlas cuesta O(categorías) y no recorre productos.
+ * Se guarda lo que aporta cada producto (categoría, precio, createAt) para poder restarlo cuando cambia o se
+ * borra; mínimos y máximos salen de mapas ordenados de precio y fecha con su número de apariciones.
+ * <p>
+ * Cada estadisticas.reconcile-interval una agregación en Mongo calcula los mismos totales y las categorías
+ * que no cuadran (escrituras de otras instancias, una recarga que se cruzó con un alta...) se recargan enteras.
+ * Los productos sin categoría no cuentan.
+ */
+@Component
+@Order(0)
+public class CategoryStats implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(CategoryStats.class);
+
+    private static final TypedAggregation<Producto> SUMMARY = newAggregation(Producto.class,
+            group("categoria.id")
+                    .count().as("productos")
+                    .sum("precio").as("suma")
+                    .min("precio").as("precioMin")
+                    .max("precio").as("precioMax")
+                    .max("createAt").as("ultimoCreateAt"));
+
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${estadisticas.enabled}")
+    private boolean enabled;
+    @Value("${estadisticas.timeout}")
+    private Duration timeout;
+    @Value("${estadisticas.reconcile-interval}")
+    private Duration reconcileInterval;
+
+    private final Map<String, Aporte> aportes = new HashMap<>();
+    private final Map<String, Acumulado> categorias = new HashMap<>();
+
+    private Counter drift;
+    private Disposable reconciliation;
+
+    @PostConstruct
+    public void init() {
+        drift = registry.counter("productos.estadisticas.desvios");
+    }
+
+    /**
+     * La carga inicial no retiene el arranque: hasta que termina las estadísticas salen incompletas, y si falla
+     * o supera estadisticas.timeout la primera reconciliación recarga las categorías que falten.
+     */
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            return;
+        }
+        reconciliation = load()
+                .thenMany(Flux.interval(reconcileInterval, reconcileInterval))
+                .onBackpressureDrop()
+                .concatMap(tick -> reconcile()
+                        .onErrorResume(e -> {
+                            log.warn("No se han podido reconciliar las estadísticas por categoría", e);
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    private Mono<Void> load() {
+        long start = System.nanoTime();
+        return mongoTemplate.find(projection(new Query()), Producto.class)
+                .doOnNext(this::put)
+                .count()
+                .timeout(timeout)
+                .doOnNext(count -> log.info("Estadísticas por categoría cargadas: " + count + " productos en " + (System.nanoTime() - start) / 1_000_000 + " ms"))
+                .onErrorResume(e -> {
+                    log.warn("No se han podido cargar las estadísticas por categoría; se completarán al reconciliar", e);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (reconciliation != null) {
+            reconciliation.dispose();
+        }
+    }
+
+    public synchronized void put(Producto producto) {
+        if (producto.getId() == null) {
+            return;
+        }
+        remove(producto.getId());
+        Categoria categoria = producto.getCategoria();
+        if (categoria == null || categoria.getId() == null) {
+            return;
+        }
+        Aporte aporte = new Aporte(categoria.getId(), producto.getPrecio(), producto.getCreateAt());
+        aportes.put(producto.getId(), aporte);
+        categorias.computeIfAbsent(categoria.getId(), id -> new Acumulado()).add(producto.getId(), categoria.getNombre(), aporte);
+    }
+
+    public synchronized void remove(String id) {
+        Aporte old = aportes.remove(id);
+        if (old == null) {
+            return;
+        }
+        Acumulado acumulado = categorias.get(old.categoriaId);
+        if (acumulado != null && acumulado.subtract(id, old)) {
+            categorias.remove(old.categoriaId);
+        }
+    }
+
+    public synchronized List<EstadisticasCategoria> snapshot() {
+        return categorias.entrySet().stream()
+                .map(e -> e.getValue().toEstadisticas(e.getKey()))
+                .sorted(Comparator.comparing((EstadisticasCategoria s) -> s.getCategoria().getNombre(),
+                        Comparator.nullsLast(Comparator.naturalOrder()))
+                        .thenComparing(s -> s.getCategoria().getId()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Compara los totales en memoria con los de Mongo y recarga las categorías que no coinciden.
+     * Devuelve cuántas se han corregido.
+     */
+    public Mono<Long> reconcile() {
+        return mongoTemplate.aggregate(SUMMARY, Document.class)
+                .filter(d -> d.get("_id") != null)
+                .collectMap(d -> d.get("_id").toString())
+                .flatMapIterable(this::drifted)
+                .concatMap(this::reload)
+                .count()
+                .doOnNext(n -> {
+                    if (n > 0) {
+                        drift.increment(n);
+                        log.warn("Estadísticas por categoría recalculadas por desvío: " + n + " categorías");
+                    }
+                });
+    }
+
+    private synchronized Set<String> drifted(Map<String, Document> totales) {
+        Set<String> ids = new HashSet<>(categorias.keySet());
+        ids.removeIf(id -> totales.containsKey(id) && categorias.get(id).matches(totales.get(id)));
+        totales.keySet().stream().filter(id -> !categorias.containsKey(id)).forEach(ids::add);
+        return ids;
+    }
+
+    private Mono<Void> reload(String categoriaId) {
+        return mongoTemplate.find(projection(query(where("categoria.id").is(categoriaId))), Producto.class)
+                .collectList()
+                .doOnNext(productos -> replace(categoriaId, productos))
+                .then();
+    }
+
+    private synchronized void replace(String categoriaId, List<Producto> productos) {
+        Acumulado old = categorias.get(categoriaId);
+        if (old != null) {
+            new ArrayList<>(old.ids).forEach(this::remove);
+        }
+        productos.forEach(this::put);
+    }
+
+    private static Query projection(Query query) {
+        query.fields().include("categoria").include("precio").include("createAt");
+        return query;
+    }
+
+    private static class Aporte {
+        private final String categoriaId;
+        private final Double precio;
+        private final Date createAt;
+
+        Aporte(String categoriaId, Double precio, Date createAt) {
+            this.categoriaId = categoriaId;
+            this.precio = precio;
+            this.createAt = createAt;
+        }
+    }
+
+    private static class Acumulado {
+        private final Set<String> ids = new HashSet<>();
+        private final TreeMap<Double, Integer> precios = new TreeMap<>();
+        private final TreeMap<Date, Integer> fechas = new TreeMap<>();
+        private String nombre;
+        private double suma;
+        private long conPrecio;
+
+        void add(String id, String nombre, Aporte aporte) {
+            ids.add(id);
+            if (nombre != null) {
+                this.nombre = nombre;
+            }
+            if (aporte.precio != null) {
+                suma += aporte.precio;
+                conPrecio++;
+                precios.merge(aporte.precio, 1, Integer::sum);
+            }
+            if (aporte.createAt != null) {
+                fechas.merge(aporte.createAt, 1, Integer::sum);
+            }
+        }
+
+        /**
+         * Devuelve true si la categoría se ha quedado sin productos.
+         */
+        boolean subtract(String id, Aporte aporte) {
+            ids.remove(id);
+            if (aporte.precio != null) {
+                suma -= aporte.precio;
+                conPrecio--;
+                precios.computeIfPresent(aporte.precio, (k, n) -> n == 1 ? null : n - 1);
+            }
+            if (aporte.createAt != null) {
+                fechas.computeIfPresent(aporte.createAt, (k, n) -> n == 1 ? null : n - 1);
+            }
+            return ids.isEmpty();
+        }
+
+        boolean matches(Document total) {
+            Number productos = total.get("productos", Number.class);
+            Number sumaTotal = total.get("suma", Number.class);
+            Number min = total.get("precioMin", Number.class);
+            Number max = total.get("precioMax", Number.class);
+            return productos != null && productos.longValue() == ids.size()
+                    && sumaTotal != null && Math.abs(sumaTotal.doubleValue() - suma) <= 1e-6 * Math.max(1, Math.abs(suma))
+                    && Objects.equals(min == null ? null : min.doubleValue(), precios.isEmpty() ? null : precios.firstKey())
+                    && Objects.equals(max == null ? null : max.doubleValue(), precios.isEmpty() ? null : precios.lastKey())
+                    && Objects.equals(total.get("ultimoCreateAt", Date.class), fechas.isEmpty() ? null : fechas.lastKey());
+        }
+
+        EstadisticasCategoria toEstadisticas(String categoriaId) {
+            Categoria categoria = new Categoria(nombre);
+            categoria.setId(categoriaId);
+            EstadisticasCategoria s = new EstadisticasCategoria();
+            s.setCategoria(categoria);
+            s.setProductos(ids.size());
+            if (!precios.isEmpty()) {
+                s.setPrecioMin(precios.firstKey());
+                s.setPrecioMedio(suma / conPrecio);
+                s.setPrecioMax(precios.lastKey());
+            }
+            if (!fechas.isEmpty()) {
+                s.setUltimoCreateAt(fechas.lastKey());
+            }
+            return s;
+        }
+    }
+}
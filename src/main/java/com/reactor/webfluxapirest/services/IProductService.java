@@ -1,24 +1,111 @@
 package com.reactor.webfluxapirest.services;
 
 import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.EstadisticasCategoria;
 import com.reactor.webfluxapirest.models.Producto;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 public interface IProductService {
 
     Flux<Producto> findAll();
 
+    /**
+     * Página de productos ordenada por id a partir del cursor {@code after} (exclusivo).
+     * Si {@code after} es null se empieza por el principio de la colección.
+     */
+    Flux<Producto> findPage(String after, int limit);
+
+    /**
+     * Como {@link #findPage(String, int)} pero trayendo de Mongo sólo {@code fields} (null para todos).
+     */
+    Flux<Producto> findPage(String after, int limit, Set<String> fields);
+
+    /**
+     * Todos los productos ordenados por id a partir del cursor {@code after}, emitidos según los devuelve Mongo.
+     */
+    Flux<Producto> streamAll(String after);
+
+    /**
+     * Hasta {@code limit} productos que cumplen {@code filter}, en su orden. Filtro, orden y límite se resuelven
+     * en Mongo con los índices de IndexInitializer y el resultado se emite según llega.
+     */
+    Flux<Producto> findByFilter(ProductoFilter filter, int limit, Set<String> fields);
+
     Flux<Producto> findAllUpperCase();
 
     Flux<Producto> findAllUpperCaseRepeat();
 
     Mono<Producto> findById(String id);
 
+    Mono<Producto> findById(String id, Set<String> fields);
+
+    /**
+     * Los productos existentes de {@code ids}, sin orden definido, resueltos con una sola consulta
+     * para todos los que no estén en caché.
+     */
+    Flux<Producto> findAllById(Collection<String> ids);
+
     Mono<Producto> save(Producto producto);
 
+    /**
+     * Inserta todos en un único insertMany sin orden, de modo que uno que falla no impide insertar los demás.
+     * Devuelve el error de cada posición de {@code productos} que no se ha insertado; el resto se ha insertado.
+     * Los que no traen id reciben uno antes de insertar.
+     */
+    Mono<Map<Integer, String>> insertAll(List<Producto> productos);
+
+    /**
+     * Sustituye nombre, precio y categoria en una única operación atómica y devuelve el documento actualizado.
+     * Si {@code versions} no es null la condición va en la misma consulta: cuando el producto existe con una
+     * versión que no está en el conjunto falla con OptimisticLockingFailureException.
+     */
+    Mono<Producto> update(String id, Producto producto, Set<Long> versions);
+
+    /**
+     * Como {@link #update(String, Producto, Set)} pero sólo modifica los campos no nulos.
+     */
+    Mono<Producto> patch(String id, Producto producto, Set<Long> versions);
+
+    /**
+     * Anota las miniaturas generadas para {@code foto} sólo si sigue siendo la foto del producto. No cambia la
+     * versión: las miniaturas se derivan de la foto, y el ETag que devolvió la subida debe seguir valiendo para
+     * el If-Match de la siguiente escritura.
+     */
+    Mono<Producto> setMiniaturas(String id, String foto, Map<String, String> miniaturas);
+
     Mono<Void> delete(Producto producto);
 
+    /**
+     * Borra el producto en una sola operación y devuelve el número de documentos eliminados (0 ó 1).
+     * {@code versions} se comprueba igual que en {@link #update(String, Producto, Set)}.
+     */
+    Mono<Long> deleteById(String id, Set<Long> versions);
+
+    /**
+     * Borra los productos indicados por lotes de productos.borrado.batch-size (cada lote, un findAllAndRemove)
+     * y libera en segundo plano las referencias a sus fotos. Cada lote es atómico por documento pero el conjunto
+     * no: si uno falla, los anteriores ya se han borrado. Con {@code fotos} a true se borran además los ficheros
+     * que se quedan sin referencias; a false esos ficheros se conservan en disco y dejan de contarse.
+     */
+    Mono<Long> deleteAllById(Collection<String> ids, boolean fotos);
+
+    /**
+     * Como {@link #deleteAllById(Collection, boolean)}, con los productos de la categoría.
+     */
+    Mono<Long> deleteByCategoria(String categoriaId, boolean fotos);
+
+    /**
+     * Número de productos, precio mínimo, medio y máximo y alta más reciente de cada categoría, leídos de un
+     * resumen que se mantiene en cada escritura: no recorre la colección de productos.
+     */
+    Flux<EstadisticasCategoria> findEstadisticasCategoria();
+
     Flux<Categoria> findAllCategoria();
 
     Mono<Categoria> findCategoriaById(String id);
@@ -27,5 +114,10 @@ public interface IProductService {
 
     Mono<Producto> findByNombre(String nombre);
 
+    /**
+     * Búsqueda por prefijo y aproximada sobre el nombre, resuelta en memoria sin consultar Mongo.
+     */
+    Flux<Producto> search(String texto, int limit);
+
     Mono<Categoria> findCategoriaByNombre(String nombre);
 }
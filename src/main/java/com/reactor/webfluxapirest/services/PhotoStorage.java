@@ -0,0 +1,174 @@
+package com.reactor.webfluxapirest.services;
+
+import com.reactor.webfluxapirest.models.Foto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Almacena las fotos por su SHA-256: fotos idénticas comparten fichero y la colección "fotos"
+ * lleva la cuenta de productos que lo referencian para borrarlo cuando deja de usarse.
+ */
+@Component
+public class PhotoStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(PhotoStorage.class);
+
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
+
+    @Value("${resources}")
+    private String resources;
+
+    /**
+     * Vuelca la foto a un temporal calculando el hash al vuelo y la deja en su nombre definitivo.
+     * Devuelve ese nombre con una referencia ya contada; quien la recibe debe liberarla si no llega a usarla.
+     * <p>
+     * La referencia se cuenta antes de mirar si el fichero ya existe, y {@link #release(String, boolean)} aparta
+     * el fichero antes de comprobar si alguien ha vuelto a contar la foto: uno de los dos siempre ve al otro, y
+     * el fichero no desaparece con una referencia viva. Si algo falla después de contarla, se devuelve.
+     */
+    public Mono<String> store(FilePart file) {
+        Path root = Paths.get(resources);
+        return Mono.fromCallable(() -> Files.createTempFile(root, "upload-", ".tmp"))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(tmp -> {
+                    MessageDigest digest = sha256();
+                    return DataBufferUtils.write(file.content().doOnNext(buffer -> digest.update(buffer.asByteBuffer())), tmp)
+                            .then(Mono.fromCallable(() -> hex(digest.digest()) + extension(file.filename())))
+                            .flatMap(name -> acquire(name).then(moveIfAbsent(tmp, root.resolve(name))
+                                    .onErrorResume(e -> release(name).then(Mono.error(e))))
+                                    .thenReturn(name))
+                            .onErrorResume(e -> delete(tmp).then(Mono.error(e)));
+                });
+    }
+
+    public Mono<Void> release(String name) {
+        return release(name, true);
+    }
+
+    /**
+     * Resta una referencia. La foto que se queda sin ninguna deja de contarse y, si {@code deleteFile}, se borra
+     * su fichero con sus miniaturas; si no, el fichero se conserva en disco fuera del recuento.
+     */
+    public Mono<Void> release(String name, boolean deleteFile) {
+        if (name == null) {
+            return Mono.empty();
+        }
+        return mongoTemplate.findAndModify(query(where("id").is(name)), new Update().inc("referencias", -1),
+                FindAndModifyOptions.options().returnNew(true), Foto.class)
+                .filter(f -> f.getReferencias() <= 0)
+                .flatMap(f -> mongoTemplate.remove(query(where("id").is(name).and("referencias").lte(0)), Foto.class))
+                .filter(r -> r.getDeletedCount() > 0 && deleteFile)
+                .flatMap(r -> retire(name))
+                .doOnError(e -> log.warn("No se pudo liberar la foto " + name, e))
+                .onErrorResume(e -> Mono.empty());
+    }
+
+    public static String extension(String filename) {
+        int dot = filename == null ? -1 : filename.lastIndexOf('.');
+        if (dot < 0) {
+            return "";
+        }
+        String ext = filename.substring(dot + 1).replaceAll("[^A-Za-z0-9]", "").toLowerCase();
+        return ext.isEmpty() || ext.length() > 10 ? "" : "." + ext;
+    }
+
+    private Mono<Void> acquire(String name) {
+        return mongoTemplate.upsert(query(where("id").is(name)), new Update().inc("referencias", 1), Foto.class).then();
+    }
+
+    /**
+     * Borra el fichero de una foto que se ha quedado sin referencias, salvo que un store la haya vuelto a contar
+     * mientras tanto: ese store puede haber visto el fichero y descartado su copia, así que se devuelve a su sitio.
+     */
+    private Mono<Void> retire(String name) {
+        Path file = Paths.get(resources).resolve(name);
+        Path retired = file.resolveSibling(name + ".borrando-" + UUID.randomUUID());
+        return Mono.fromCallable(() -> {
+            try {
+                Files.move(file, retired);
+                return true;
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }).subscribeOn(Schedulers.boundedElastic())
+                .filter(moved -> moved)
+                .flatMap(moved -> mongoTemplate.exists(query(where("id").is(name)), Foto.class)
+                        .onErrorResume(e -> moveIfAbsent(retired, file).then(Mono.error(e))))
+                .flatMap(reacquired -> reacquired
+                        ? moveIfAbsent(retired, file)
+                        : delete(retired).then(deleteVariants(name)));
+    }
+
+    private static Mono<Void> moveIfAbsent(Path tmp, Path target) {
+        return Mono.<Void>fromCallable(() -> {
+            try {
+                Files.move(tmp, target);
+            } catch (FileAlreadyExistsException e) {
+                Files.deleteIfExists(tmp);
+            }
+            return null;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Las miniaturas de ThumbnailPipeline comparten el hash del original como prefijo.
+     */
+    private Mono<Void> deleteVariants(String name) {
+        String stem = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
+        return Mono.<Void>fromCallable(() -> {
+            try (DirectoryStream<Path> variants = Files.newDirectoryStream(Paths.get(resources), stem + "-*")) {
+                for (Path variant : variants) {
+                    Files.deleteIfExists(variant);
+                }
+            }
+            return null;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static Mono<Void> delete(Path path) {
+        return Mono.<Void>fromCallable(() -> {
+            Files.deleteIfExists(path);
+            return null;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
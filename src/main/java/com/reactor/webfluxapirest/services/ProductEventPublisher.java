@@ -0,0 +1,122 @@
+package com.reactor.webfluxapirest.services;
+
+import com.reactor.webfluxapirest.models.Producto;
+import com.reactor.webfluxapirest.models.ProductoEvento;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+
+/**
+ * Difunde en memoria los cambios de productos. Cada suscriptor tiene su propio buffer acotado,
+ * de modo que un cliente lento sólo pierde sus propios eventos y nunca frena a quien publica.
+ * Con eventos.change-streams=true los eventos salen del change stream de Mongo (requiere replica set)
+ * en lugar de los avisos del servicio, y así se ven también los cambios hechos por otras instancias.
+ */
+@Component
+public class ProductEventPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductEventPublisher.class);
+
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${eventos.buffer-size}")
+    private int bufferSize;
+    @Value("${eventos.overflow}")
+    private String overflow;
+    @Value("${eventos.change-streams}")
+    private boolean changeStreams;
+
+    private final DirectProcessor<ProductoEvento> processor = DirectProcessor.create();
+    private final FluxSink<ProductoEvento> sink = processor.sink();
+    private Counter dropped;
+    private Disposable changeStream;
+
+    @PostConstruct
+    public void init() {
+        dropped = registry.counter("productos.eventos.dropped");
+        if (changeStreams) {
+            changeStream = mongoTemplate.changeStream("productos", ChangeStreamOptions.builder().returnFullDocumentOnUpdate().build(), Producto.class)
+                    .filter(event -> event.getOperationType() != null)
+                    .map(this::toEvento)
+                    .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofSeconds(30)))
+                    .subscribe(sink::next, e -> log.error("Change stream de productos finalizado", e));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (changeStream != null) {
+            changeStream.dispose();
+        }
+        sink.complete();
+    }
+
+    public void created(Producto producto) {
+        publish(new ProductoEvento(ProductoEvento.CREADO, producto.getId(), producto));
+    }
+
+    public void updated(Producto producto) {
+        publish(new ProductoEvento(ProductoEvento.ACTUALIZADO, producto.getId(), producto));
+    }
+
+    public void deleted(String id) {
+        publish(new ProductoEvento(ProductoEvento.ELIMINADO, id, null));
+    }
+
+    /**
+     * eventos.overflow: "latest" conserva sólo el último evento pendiente; "drop-newest" descarta los que
+     * llegan con el buffer lleno; "drop-oldest" (por defecto) descarta los más antiguos.
+     */
+    public Flux<ProductoEvento> events() {
+        Flux<ProductoEvento> events = processor;
+        switch (overflow.toLowerCase()) {
+            case "latest":
+                return events.onBackpressureLatest();
+            case "drop-newest":
+                return events.onBackpressureBuffer(bufferSize, e -> dropped.increment(), BufferOverflowStrategy.DROP_LATEST);
+            default:
+                return events.onBackpressureBuffer(bufferSize, e -> dropped.increment(), BufferOverflowStrategy.DROP_OLDEST);
+        }
+    }
+
+    private void publish(ProductoEvento evento) {
+        if (!changeStreams && processor.hasDownstreams()) {
+            sink.next(evento);
+        }
+    }
+
+    private ProductoEvento toEvento(ChangeStreamEvent<Producto> event) {
+        String id = event.getRaw() != null && event.getRaw().getDocumentKey() != null
+                ? event.getRaw().getDocumentKey().get("_id").asObjectId().getValue().toHexString()
+                : null;
+        switch (event.getOperationType()) {
+            case INSERT:
+                return new ProductoEvento(ProductoEvento.CREADO, id, event.getBody());
+            case DELETE:
+            case DROP:
+                return new ProductoEvento(ProductoEvento.ELIMINADO, id, null);
+            default:
+                return new ProductoEvento(ProductoEvento.ACTUALIZADO, id, event.getBody());
+        }
+    }
+}
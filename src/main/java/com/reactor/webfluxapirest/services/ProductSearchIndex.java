@@ -0,0 +1,242 @@
+package com.reactor.webfluxapirest.services;
+
+import com.reactor.webfluxapirest.models.Producto;
+import com.reactor.webfluxapirest.repository.ProductoRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+
+import javax.annotation.PreDestroy;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Índice en memoria sobre Producto.nombre para autocompletar: prefijos de palabra sobre un mapa ordenado
+ * y coincidencia aproximada por trigramas del vocabulario. Los nombres se normalizan sin tildes ni
+ * mayúsculas ("Cómoda" y "comoda" son la misma palabra). Se carga al arrancar y el servicio lo mantiene
+ * al día en cada alta, modificación o borrado. Guarda y devuelve copias: quien llama puede modificar
+ * el producto que recibe sin tocar el índice.
+ */
+@Component
+@Order(0)
+public class ProductSearchIndex implements CommandLineRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSearchIndex.class);
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final double EXACT = 3;
+    private static final double PREFIX = 2;
+    private static final double MIN_SIMILARITY = 0.45;
+
+    @Autowired
+    private ProductoRepository productoRepository;
+
+    @Value("${search.enabled}")
+    private boolean enabled;
+    @Value("${search.timeout}")
+    private Duration timeout;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Set<String>> postings = new ConcurrentSkipListMap<>();
+    private final Map<String, Set<String>> trigrams = new ConcurrentHashMap<>();
+
+    // Productos borrados mientras dura la carga inicial; null cuando no hay carga en curso
+    private Set<String> removedWhileLoading;
+    private Disposable loading;
+
+    /**
+     * La carga no retiene el arranque: hasta que termina la búsqueda sólo encuentra lo cargado y lo que se haya
+     * escrito entretanto. Si falla o supera search.timeout se queda con lo que tenga y se avisa en el log.
+     */
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            removedWhileLoading = new HashSet<>();
+        }
+        long start = System.nanoTime();
+        loading = productoRepository.findAll()
+                .doOnNext(this::load)
+                .count()
+                .timeout(timeout)
+                .doFinally(signal -> {
+                    synchronized (this) {
+                        removedWhileLoading = null;
+                    }
+                })
+                .subscribe(count -> log.info("Índice de búsqueda cargado: " + count + " productos en " + (System.nanoTime() - start) / 1_000_000 + " ms"),
+                        e -> log.warn("No se ha podido cargar el índice de búsqueda; sólo tendrá los productos escritos desde el arranque", e));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (loading != null) {
+            loading.dispose();
+        }
+    }
+
+    /**
+     * Lo que lee la carga puede ser anterior a una escritura del servicio hecha mientras tanto: no pisa
+     * un producto ya indexado ni recupera uno borrado.
+     */
+    private synchronized void load(Producto producto) {
+        if (producto.getId() == null || entries.containsKey(producto.getId())
+                || removedWhileLoading != null && removedWhileLoading.contains(producto.getId())) {
+            return;
+        }
+        put(producto);
+    }
+
+    public synchronized void put(Producto producto) {
+        if (producto.getId() == null || producto.getNombre() == null) {
+            return;
+        }
+        unindex(producto.getId());
+        Set<String> words = words(producto.getNombre());
+        entries.put(producto.getId(), new Entry(Producto.copyOf(producto), words));
+        for (String word : words) {
+            postings.computeIfAbsent(word, w -> {
+                trigrams(w).forEach(t -> trigrams.computeIfAbsent(t, k -> ConcurrentHashMap.newKeySet()).add(w));
+                return ConcurrentHashMap.newKeySet();
+            }).add(producto.getId());
+        }
+    }
+
+    public synchronized void remove(String id) {
+        if (removedWhileLoading != null) {
+            removedWhileLoading.add(id);
+        }
+        unindex(id);
+    }
+
+    private void unindex(String id) {
+        Entry old = entries.remove(id);
+        if (old == null) {
+            return;
+        }
+        for (String word : old.words) {
+            Set<String> ids = postings.get(word);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                postings.remove(word);
+                for (String t : trigrams(word)) {
+                    Set<String> vocabulary = trigrams.get(t);
+                    if (vocabulary != null && vocabulary.remove(word) && vocabulary.isEmpty()) {
+                        trigrams.remove(t);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Productos cuyo nombre contiene, para cada palabra buscada, una palabra igual, que empieza por ella
+     * o suficientemente parecida. Se ordenan por puntuación y, a igualdad, por nombre más corto.
+     */
+    public List<Producto> search(String text, int limit) {
+        Set<String> terms = words(text);
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        Map<String, Double> scores = null;
+        for (String term : terms) {
+            Map<String, Double> termScores = score(term);
+            if (scores == null) {
+                scores = termScores;
+            } else {
+                scores.keySet().retainAll(termScores.keySet());
+                scores.replaceAll((id, s) -> s + termScores.get(id));
+            }
+            if (scores.isEmpty()) {
+                return List.of();
+            }
+        }
+        return scores.entrySet().stream()
+                .map(e -> Map.entry(entries.get(e.getKey()), e.getValue()))
+                .filter(e -> e.getKey() != null)
+                .sorted(Comparator.<Map.Entry<Entry, Double>>comparingDouble(Map.Entry::getValue).reversed()
+                        .thenComparingInt(e -> e.getKey().producto.getNombre().length()))
+                .limit(limit)
+                .map(e -> Producto.copyOf(e.getKey().producto))
+                .collect(Collectors.toList());
+    }
+
+    public static String normalize(String text) {
+        return MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private Map<String, Double> score(String term) {
+        Map<String, Double> scores = new HashMap<>();
+        postings.subMap(term, true, term + Character.MAX_VALUE, false).forEach((word, ids) -> {
+            double s = word.equals(term) ? EXACT : PREFIX;
+            ids.forEach(id -> scores.merge(id, s, Math::max));
+        });
+        if (term.length() < 3) {
+            return scores;
+        }
+        List<String> termTrigrams = trigrams(term);
+        Map<String, Integer> shared = new HashMap<>();
+        for (String t : termTrigrams) {
+            Set<String> vocabulary = trigrams.get(t);
+            if (vocabulary != null) {
+                vocabulary.forEach(word -> shared.merge(word, 1, Integer::sum));
+            }
+        }
+        shared.forEach((word, n) -> {
+            double similarity = 2.0 * n / (termTrigrams.size() + word.length());
+            Set<String> ids = postings.get(word);
+            if (similarity >= MIN_SIMILARITY && ids != null) {
+                ids.forEach(id -> scores.merge(id, similarity, Math::max));
+            }
+        });
+        return scores;
+    }
+
+    private static Set<String> words(String text) {
+        return Arrays.stream(SEPARATORS.split(normalize(text)))
+                .filter(w -> !w.isEmpty())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * Trigramas de la palabra con un marcador de inicio y fin, de modo que una palabra de n letras tiene n trigramas.
+     */
+    private static List<String> trigrams(String word) {
+        String padded = "$" + word + "$";
+        List<String> result = new ArrayList<>(word.length());
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            result.add(padded.substring(i, i + 3));
+        }
+        return result;
+    }
+
+    private static class Entry {
+        private final Producto producto;
+        private final Set<String> words;
+
+        Entry(Producto producto, Set<String> words) {
+            this.producto = producto;
+            this.words = words;
+        }
+    }
+}
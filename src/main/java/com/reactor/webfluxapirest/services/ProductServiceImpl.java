@@ -1,16 +1,48 @@
 package com.reactor.webfluxapirest.services;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
 import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.EstadisticasCategoria;
 import com.reactor.webfluxapirest.models.Producto;
 import com.reactor.webfluxapirest.repository.CategoriaRepository;
 import com.reactor.webfluxapirest.repository.ProductoRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
 @Service
 public class ProductServiceImpl implements IProductService {
 
@@ -18,14 +50,112 @@ public class ProductServiceImpl implements IProductService {
     private ProductoRepository productoRepository;
     @Autowired
     private CategoriaRepository categoriaRepository;
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
+    @Autowired
+    private PhotoStorage photoStorage;
+    @Autowired
+    private ProductEventPublisher eventos;
+    @Autowired
+    private ProductSearchIndex searchIndex;
+    @Autowired
+    private CategoryStats categoryStats;
+    @Autowired
+    private AsyncCache<String, Producto> productoCache;
+    @Autowired
+    private AsyncCache<String, Categoria> categoriaCache;
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${loader.categorias.max-batch}")
+    private int loaderMaxBatch;
+    @Value("${productos.borrado.batch-size}")
+    private int deleteBatchSize;
+
+    private BatchLoader<String, Categoria> categoriaPorId;
+    private BatchLoader<String, Categoria> categoriaPorNombre;
+
+    private SingleFlight<Map.Entry<String, Set<String>>, Producto> productoProyectado;
+    private SingleFlight<String, Producto> productoPorNombre;
+    private Counter porIdLeaders;
+    private Counter porIdJoined;
 
     private static final Logger log = LoggerFactory.getLogger(ProductServiceImpl.class);
+    private static final Sort BY_ID = Sort.by("id");
+
+    @PostConstruct
+    public void init() {
+        categoriaPorId = new BatchLoader<>(categoriaRepository::findAllById, Categoria::getId, loaderMaxBatch);
+        categoriaPorNombre = new BatchLoader<>(categoriaRepository::findByNombreIn, Categoria::getNombre, loaderMaxBatch);
+
+        // Las lecturas concurrentes iguales comparten consulta. Por id ya lo hace la caché: AsyncCache.get devuelve
+        // el mismo futuro a todos mientras carga, y findById lo cuenta en la misma métrica que SingleFlight
+        porIdLeaders = registry.counter("productos.singleflight", "method", "findById", "result", "leader");
+        porIdJoined = registry.counter("productos.singleflight", "method", "findById", "result", "joined");
+        productoProyectado = new SingleFlight<>("findById", key -> mongoTemplate.findOne(
+                ProductoFields.include(query(where("id").is(key.getKey())), key.getValue()), Producto.class), registry);
+        productoPorNombre = new SingleFlight<>("findByNombre", productoRepository::findByNombre, registry);
+    }
 
     @Override
     public Flux<Producto> findAll() {
         return productoRepository.findAll();
     }
 
+    @Override
+    public Flux<Producto> findPage(String after, int limit) {
+        PageRequest page = PageRequest.of(0, limit, BY_ID);
+        return after == null
+                ? productoRepository.findAllBy(page)
+                : productoRepository.findByIdGreaterThan(new ObjectId(after), page);
+    }
+
+    @Override
+    public Flux<Producto> findPage(String after, int limit, Set<String> fields) {
+        if (fields == null) {
+            return findPage(after, limit);
+        }
+        Query query = after == null ? new Query() : query(where("id").gt(new ObjectId(after)));
+        return mongoTemplate.find(ProductoFields.include(query.with(BY_ID).limit(limit), fields), Producto.class);
+    }
+
+    @Override
+    public Flux<Producto> streamAll(String after) {
+        return after == null
+                ? productoRepository.findAll(BY_ID)
+                : productoRepository.findByIdGreaterThan(new ObjectId(after), BY_ID);
+    }
+
+    @Override
+    public Flux<Producto> findByFilter(ProductoFilter filter, int limit, Set<String> fields) {
+        Query query = new Query();
+        if (filter.getCategoriaId() != null) {
+            query.addCriteria(where("categoria.id").is(filter.getCategoriaId()));
+        }
+        if (filter.getPrecioMin() != null || filter.getPrecioMax() != null) {
+            Criteria precio = where("precio");
+            if (filter.getPrecioMin() != null) {
+                precio.gte(filter.getPrecioMin());
+            }
+            if (filter.getPrecioMax() != null) {
+                precio.lte(filter.getPrecioMax());
+            }
+            query.addCriteria(precio);
+        }
+        if (filter.getDesde() != null || filter.getHasta() != null) {
+            Criteria createAt = where("createAt");
+            if (filter.getDesde() != null) {
+                createAt.gte(filter.getDesde());
+            }
+            if (filter.getHasta() != null) {
+                createAt.lte(filter.getHasta());
+            }
+            query.addCriteria(createAt);
+        }
+        query.with(filter.getSort()).limit(limit);
+        return mongoTemplate.find(fields == null ? query : ProductoFields.include(query, fields), Producto.class);
+    }
+
     @Override
     public Flux<Producto> findAllUpperCase() {
         return productoRepository.findAll().map(producto -> {
@@ -40,19 +170,277 @@ public class ProductServiceImpl implements IProductService {
     }
 
 
+    /**
+     * Las instancias de la caché (y las que comparte SingleFlight entre llamadas) no salen del servicio: cada
+     * llamada recibe su copia, que puede modificar sin que lo vean otras lecturas antes de guardarse.
+     * <p>
+     * Un fallo de caché lanza la consulta una sola vez aunque lleguen varias lecturas; si todas cancelan, la
+     * consulta termina igualmente y deja el producto en caché. Los aciertos no cuentan en productos.singleflight:
+     * sólo la lectura que lanza la consulta (leader) y las que llegan mientras está en curso (joined).
+     */
     @Override
     public Mono<Producto> findById(String id) {
-        return productoRepository.findById(id);
+        return Mono.defer(() -> {
+            CompletableFuture<Producto> cached = productoCache.getIfPresent(id);
+            if (cached != null && cached.isDone()) {
+                return Mono.fromFuture(cached);
+            }
+            // La función de carga se ejecuta en este hilo sólo si esta llamada es la que instala el futuro
+            AtomicBoolean leader = new AtomicBoolean();
+            CompletableFuture<Producto> future = productoCache.get(id, (key, executor) -> {
+                leader.set(true);
+                return productoRepository.findById(key).toFuture();
+            });
+            (leader.get() ? porIdLeaders : porIdJoined).increment();
+            return Mono.fromFuture(future);
+        }).map(Producto::copyOf);
+    }
+
+    @Override
+    public Flux<Producto> findAllById(Collection<String> ids) {
+        // Los que ya están en caché no van a Mongo; el resto se pide con un único findAllById y queda cacheado
+        return Mono.defer(() -> Mono.fromFuture(productoCache.getAll(ids, (missing, executor) ->
+                productoRepository.findAllById(Flux.fromIterable(missing))
+                        .collectMap(Producto::getId)
+                        .toFuture())))
+                .flatMapIterable(Map::values)
+                .map(Producto::copyOf);
+    }
+
+    @Override
+    public Mono<Producto> findById(String id, Set<String> fields) {
+        if (fields == null) {
+            return findById(id);
+        }
+        // Si el documento completo ya está en caché no hace falta ir a Mongo; las proyecciones no se cachean.
+        // La caché se mira al suscribirse, no al montar el Mono
+        return Mono.defer(() -> {
+            CompletableFuture<Producto> cached = productoCache.getIfPresent(id);
+            return cached != null ? Mono.fromFuture(cached) : productoProyectado.load(Map.entry(id, fields));
+        }).map(Producto::copyOf);
     }
 
     @Override
     public Mono<Producto> save(Producto producto) {
-        return productoRepository.save(producto);
+        boolean created = producto.getId() == null;
+        if (created) {
+            // La versión la asigna Mongo al insertar; una que venga del cliente haría que se tratase como update
+            producto.setVersion(null);
+        } else if (producto.getVersion() == null) {
+            // Documento anterior al campo version: se le asigna la 0 para que el save versionado lo encuentre
+            return mongoTemplate.updateFirst(query(where("id").is(producto.getId())).addCriteria(where("version").exists(false)),
+                    Update.update("version", 0L), Producto.class)
+                    .then(Mono.defer(() -> {
+                        producto.setVersion(0L);
+                        return save(producto);
+                    }));
+        }
+        return productoRepository.save(producto)
+                .doOnNext(p -> onSaved(p, created))
+                .doOnError(e -> invalidate(productoCache, producto.getId()));
+    }
+
+    @Override
+    public Mono<Producto> update(String id, Producto producto, Set<Long> versions) {
+        return findAndModify(id, versions, new Update()
+                .set("nombre", producto.getNombre())
+                .set("precio", producto.getPrecio())
+                .set("categoria", producto.getCategoria()));
+    }
+
+    @Override
+    public Mono<Producto> patch(String id, Producto producto, Set<Long> versions) {
+        Update update = new Update();
+        if (producto.getNombre() != null) {
+            update.set("nombre", producto.getNombre());
+        }
+        if (producto.getPrecio() != null) {
+            update.set("precio", producto.getPrecio());
+        }
+        if (producto.getCategoria() != null) {
+            update.set("categoria", producto.getCategoria());
+        }
+        if (update.getUpdateObject().isEmpty()) {
+            return findById(id).flatMap(p -> versions == null || versions.contains(ProductoETags.version(p))
+                    ? Mono.just(p)
+                    : Mono.error(versionConflict(id, versions)));
+        }
+        return findAndModify(id, versions, update);
+    }
+
+    private Mono<Producto> findAndModify(String id, Set<Long> versions, Update update) {
+        return mongoTemplate.findAndModify(byIdAndVersion(id, versions), update.inc("version", 1),
+                FindAndModifyOptions.options().returnNew(true), Producto.class)
+                .switchIfEmpty(checkConflict(id, versions))
+                .doOnNext(p -> onSaved(p, false))
+                .doOnError(e -> invalidate(productoCache, id));
+    }
+
+    @Override
+    public Mono<Producto> setMiniaturas(String id, String foto, Map<String, String> miniaturas) {
+        return mongoTemplate.findAndModify(query(where("id").is(id).and("foto").is(foto)),
+                new Update().set("miniaturas", miniaturas),
+                FindAndModifyOptions.options().returnNew(true), Producto.class)
+                .doOnNext(p -> onSaved(p, false));
+    }
+
+    private static Query byIdAndVersion(String id, Set<Long> versions) {
+        Query query = query(where("id").is(id));
+        if (versions != null) {
+            List<Long> values = new ArrayList<>(versions);
+            if (versions.contains(0L)) {
+                // $in con null casa también con los documentos que aún no tienen el campo
+                values.add(null);
+            }
+            query.addCriteria(where("version").in(values));
+        }
+        return query;
+    }
+
+    /**
+     * Se llama cuando la consulta con versión no ha encontrado nada: si el producto existe es que la versión
+     * no coincidía; si no existe, vacío como cualquier otro 404.
+     */
+    private <T> Mono<T> checkConflict(String id, Set<Long> versions) {
+        return versions == null ? Mono.empty() : mongoTemplate.exists(query(where("id").is(id)), Producto.class)
+                .flatMap(exists -> exists ? Mono.error(versionConflict(id, versions)) : Mono.empty());
+    }
+
+    private static OptimisticLockingFailureException versionConflict(String id, Set<Long> versions) {
+        return new OptimisticLockingFailureException("El producto " + id + " no está en ninguna de las versiones " + versions);
+    }
+
+    @Override
+    public Mono<Map<Integer, String>> insertAll(List<Producto> productos) {
+        if (productos.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        // El insertMany ordenado de ReactiveMongoTemplate para en el primer error sin decir qué se ha insertado
+        List<Document> documents = new ArrayList<>(productos.size());
+        for (Producto producto : productos) {
+            if (producto.getId() == null) {
+                producto.setId(new ObjectId().toHexString());
+            }
+            producto.setVersion(0L);
+            Document document = new Document();
+            mongoTemplate.getConverter().write(producto, document);
+            documents.add(document);
+        }
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(Producto.class))
+                .flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+                .map(result -> Map.<Integer, String>of())
+                .onErrorResume(MongoBulkWriteException.class, e -> Mono.just(e.getWriteErrors().stream()
+                        .collect(Collectors.toMap(BulkWriteError::getIndex, error -> ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY
+                                ? "Ya existe un producto con id " + productos.get(error.getIndex()).getId()
+                                : error.getMessage()))))
+                .doOnNext(errors -> {
+                    for (int i = 0; i < productos.size(); i++) {
+                        if (!errors.containsKey(i)) {
+                            onSaved(productos.get(i), true);
+                        }
+                    }
+                });
     }
 
     @Override
     public Mono<Void> delete(Producto producto) {
-        return productoRepository.delete(producto);
+        return productoRepository.delete(producto)
+                .doOnTerminate(() -> invalidate(productoCache, producto.getId()))
+                .doOnSuccess(v -> onDeleted(producto))
+                .then(photoStorage.release(producto.getFoto()));
+    }
+
+    @Override
+    public Mono<Long> deleteById(String id, Set<Long> versions) {
+        return mongoTemplate.findAndRemove(byIdAndVersion(id, versions), Producto.class)
+                .doOnTerminate(() -> invalidate(productoCache, id))
+                .doOnNext(p -> {
+                    onDeleted(p);
+                    releaseFotos(List.of(p), true);
+                })
+                .map(p -> 1L)
+                .switchIfEmpty(checkConflict(id, versions))
+                .defaultIfEmpty(0L);
+    }
+
+    @Override
+    public Mono<Long> deleteAllById(Collection<String> ids, boolean fotos) {
+        return deleteMany(where("id").in(ids), fotos);
+    }
+
+    @Override
+    public Mono<Long> deleteByCategoria(String categoriaId, boolean fotos) {
+        return deleteMany(where("categoria.id").is(categoriaId), fotos);
+    }
+
+    /**
+     * Cada borrado tiene que invalidar la caché, avisar a los suscriptores y liberar la referencia a su foto,
+     * así que hace falta saber qué se borra: findAllAndRemove lee sólo id y foto y borra exactamente esos ids.
+     * Va por lotes de productos.borrado.batch-size para acotar el $in y lo que se tiene en memoria.
+     */
+    private Mono<Long> deleteMany(Criteria criteria, boolean fotos) {
+        return deleteBatch(criteria, fotos)
+                .expand(deleted -> deleted < deleteBatchSize ? Mono.empty() : deleteBatch(criteria, fotos))
+                .reduce(0L, Long::sum);
+    }
+
+    private Mono<Long> deleteBatch(Criteria criteria, boolean fotos) {
+        Query batch = query(criteria).limit(deleteBatchSize);
+        batch.fields().include("id").include("foto");
+        return mongoTemplate.findAllAndRemove(batch, Producto.class)
+                .collectList()
+                .doOnNext(productos -> {
+                    productos.forEach(this::onDeleted);
+                    releaseFotos(productos, fotos);
+                })
+                .map(productos -> (long) productos.size());
+    }
+
+    private void onSaved(Producto producto, boolean created) {
+        // Copia: quien ha guardado se queda con la instancia devuelta y podría seguir modificándola
+        productoCache.put(producto.getId(), CompletableFuture.completedFuture(Producto.copyOf(producto)));
+        forgetInFlight(producto.getId());
+        searchIndex.put(producto);
+        categoryStats.put(producto);
+        if (created) {
+            eventos.created(producto);
+        } else {
+            eventos.updated(producto);
+        }
+    }
+
+    private void onDeleted(Producto producto) {
+        invalidate(productoCache, producto.getId());
+        forgetInFlight(producto.getId());
+        searchIndex.remove(producto.getId());
+        categoryStats.remove(producto.getId());
+        eventos.deleted(producto.getId());
+    }
+
+    /**
+     * Las lecturas que empiecen después de una escritura no deben unirse a una consulta lanzada antes.
+     * Por id basta con la caché, que se sustituye o invalida antes de llegar aquí. Por nombre se olvidan
+     * todas porque el nombre anterior no siempre se conoce.
+     */
+    private void forgetInFlight(String id) {
+        productoProyectado.forgetIf(key -> key.getKey().equals(id));
+        productoPorNombre.forgetIf(nombre -> true);
+    }
+
+    /**
+     * Las referencias se liberan siempre, para que la cuenta no se quede por encima de los productos que
+     * de verdad usan cada foto; {@code deleteFiles} sólo decide si se borran los ficheros que quedan libres.
+     */
+    private void releaseFotos(List<Producto> productos, boolean deleteFiles) {
+        Flux.fromIterable(productos)
+                .filter(p -> p.getFoto() != null)
+                .concatMap(p -> photoStorage.release(p.getFoto(), deleteFiles))
+                .subscribe();
+    }
+
+    @Override
+    public Flux<EstadisticasCategoria> findEstadisticasCategoria() {
+        return Flux.defer(() -> Flux.fromIterable(categoryStats.snapshot()));
     }
 
     @Override
@@ -62,21 +450,34 @@ public class ProductServiceImpl implements IProductService {
 
     @Override
     public Mono<Categoria> findCategoriaById(String id) {
-        return categoriaRepository.findById(id);
+        return Mono.defer(() -> Mono.fromFuture(categoriaCache.get(id, (key, executor) -> categoriaPorId.load(key).toFuture())));
     }
 
     @Override
     public Mono<Categoria> saveCategoria(Categoria categoria) {
-        return categoriaRepository.save(categoria);
+        return categoriaRepository.save(categoria)
+                .doOnNext(c -> categoriaCache.put(c.getId(), CompletableFuture.completedFuture(c)))
+                .doOnError(e -> invalidate(categoriaCache, categoria.getId()));
+    }
+
+    @Override
+    public Flux<Producto> search(String texto, int limit) {
+        return Flux.defer(() -> Flux.fromIterable(searchIndex.search(texto, limit)));
     }
 
     @Override
     public Mono<Producto> findByNombre(String nombre) {
-        return productoRepository.findByNombre(nombre);
+        return productoPorNombre.load(nombre).map(Producto::copyOf);
     }
 
     @Override
     public Mono<Categoria> findCategoriaByNombre(String nombre) {
-        return categoriaRepository.findByNombre(nombre);
+        return categoriaPorNombre.load(nombre);
+    }
+
+    private static void invalidate(AsyncCache<String, ?> cache, String id) {
+        if (id != null) {
+            cache.synchronous().invalidate(id);
+        }
     }
 }
@@ -0,0 +1,70 @@
+package com.reactor.webfluxapirest.services;
+
+import com.reactor.webfluxapirest.models.Producto;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ETags débiles derivados del campo version: {@code W/"<version>"} para un producto, seguido de
+ * {@code -<hash>} cuando sólo se devuelven algunos campos, y un hash de ids y versiones para una página.
+ */
+public final class ProductoETags {
+
+    private static final Pattern VERSION_TAG = Pattern.compile("W/\"(\\d{1,18})\"");
+
+    private ProductoETags() {
+    }
+
+    /**
+     * Los documentos guardados antes de existir el campo cuentan como versión 0.
+     */
+    public static long version(Producto p) {
+        return p.getVersion() == null ? 0L : p.getVersion();
+    }
+
+    public static String of(Producto p, Set<String> fields) {
+        String tag = Long.toString(version(p));
+        return weak(fields == null ? tag : tag + "-" + Integer.toHexString(fields.hashCode()));
+    }
+
+    public static String of(List<Producto> page, Set<String> fields) {
+        long hash = fields == null ? 0 : fields.hashCode();
+        for (Producto p : page) {
+            hash = 31 * hash + p.getId().hashCode();
+            hash = 31 * hash + version(p);
+        }
+        return weak(page.size() + "-" + Long.toHexString(hash));
+    }
+
+    /**
+     * Versiones aceptadas por una cabecera If-Match: null si no hay cabecera o contiene {@code *}, que sólo
+     * exige que el producto exista. Del resto de la lista sólo cuentan las etiquetas exactas {@code W/"<version>"}
+     * de un producto completo; cualquier otra nunca coincide, así que un conjunto vacío falla siempre.
+     */
+    public static Set<Long> ifMatch(String header) {
+        if (StringUtils.isBlank(header)) {
+            return null;
+        }
+        Set<Long> versions = new HashSet<>();
+        for (String tag : header.split(",")) {
+            String value = tag.trim();
+            if (value.equals("*")) {
+                return null;
+            }
+            Matcher matcher = VERSION_TAG.matcher(value);
+            if (matcher.matches()) {
+                versions.add(Long.valueOf(matcher.group(1)));
+            }
+        }
+        return versions;
+    }
+
+    private static String weak(String tag) {
+        return "W/\"" + tag + "\"";
+    }
+}
@@ -0,0 +1,87 @@
+package com.reactor.webfluxapirest.services;
+
+import com.reactor.webfluxapirest.models.Producto;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Campos de Producto que se pueden pedir con ?fields=. Se usan tanto para la proyección en Mongo como
+ * para serializar sólo esos campos en la respuesta.
+ */
+public final class ProductoFields {
+
+    public static final Set<String> ALLOWED = Set.of("id", "nombre", "precio", "createAt", "categoria", "foto", "miniaturas", "version");
+
+    private ProductoFields() {
+    }
+
+    /**
+     * Null si no se han pedido campos (documento completo). El id se incluye siempre porque hace de cursor.
+     */
+    public static Set<String> parse(String fields) {
+        if (StringUtils.isBlank(fields)) {
+            return null;
+        }
+        Set<String> parsed = Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(StringUtils::isNotEmpty)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        for (String field : parsed) {
+            if (!ALLOWED.contains(field)) {
+                throw new IllegalArgumentException("Campo desconocido: " + field);
+            }
+        }
+        parsed.add("id");
+        return parsed;
+    }
+
+    /**
+     * La versión se trae siempre porque de ella sale el ETag, aunque no se haya pedido.
+     */
+    public static Query include(Query query, Set<String> fields) {
+        fields.forEach(query.fields()::include);
+        query.fields().include("version");
+        return query;
+    }
+
+    public static Map<String, Object> project(Producto p, Set<String> fields) {
+        Map<String, Object> view = new LinkedHashMap<>();
+        for (String field : fields) {
+            switch (field) {
+                case "id":
+                    view.put(field, p.getId());
+                    break;
+                case "nombre":
+                    view.put(field, p.getNombre());
+                    break;
+                case "precio":
+                    view.put(field, p.getPrecio());
+                    break;
+                case "createAt":
+                    view.put(field, p.getCreateAt());
+                    break;
+                case "categoria":
+                    view.put(field, p.getCategoria());
+                    break;
+                case "foto":
+                    view.put(field, p.getFoto());
+                    break;
+                case "miniaturas":
+                    view.put(field, p.getMiniaturas());
+                    break;
+                case "version":
+                    view.put(field, p.getVersion());
+                    break;
+                default:
+            }
+        }
+        return view;
+    }
+}
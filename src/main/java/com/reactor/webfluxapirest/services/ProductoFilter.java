@@ -0,0 +1,115 @@
+package com.reactor.webfluxapirest.services;
+
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Filtros y orden de /productos/consulta: categoría, rango de precio y de createAt. Las fechas admiten
+ * yyyy-MM-dd (días completos en UTC, {@code hasta} incluido) o un instante ISO-8601. Un parámetro mal
+ * formado es un IllegalArgumentException, igual que en {@link ProductoFields}.
+ */
+@Getter
+public final class ProductoFilter {
+
+    /**
+     * Campos por los que se puede ordenar con ?sort=campo,-campo. Todos tienen índice (IndexInitializer).
+     */
+    public static final Set<String> SORTABLE = Set.of("nombre", "precio", "createAt");
+
+    private final String categoriaId;
+    private final Double precioMin;
+    private final Double precioMax;
+    // Ambos inclusive
+    private final Date desde;
+    private final Date hasta;
+    // Sin ?sort= se ordena por id, el orden de inserción
+    private final Sort sort;
+
+    private ProductoFilter(String categoriaId, Double precioMin, Double precioMax, Date desde, Date hasta, Sort sort) {
+        this.categoriaId = categoriaId;
+        this.precioMin = precioMin;
+        this.precioMax = precioMax;
+        this.desde = desde;
+        this.hasta = hasta;
+        this.sort = sort;
+    }
+
+    public static ProductoFilter parse(String categoria, String precioMin, String precioMax,
+                                       String desde, String hasta, String sort) {
+        if (StringUtils.isNotBlank(categoria) && !ObjectId.isValid(categoria)) {
+            throw new IllegalArgumentException("Categoría no válida: " + categoria);
+        }
+        Double min = parsePrecio("precioMin", precioMin);
+        Double max = parsePrecio("precioMax", precioMax);
+        if (min != null && max != null && min > max) {
+            throw new IllegalArgumentException("precioMin no puede ser mayor que precioMax");
+        }
+        Date from = parseFecha("desde", desde, false);
+        Date to = parseFecha("hasta", hasta, true);
+        if (from != null && to != null && from.after(to)) {
+            throw new IllegalArgumentException("desde no puede ser posterior a hasta");
+        }
+        return new ProductoFilter(StringUtils.trimToNull(categoria), min, max, from, to, parseSort(sort));
+    }
+
+    private static Double parsePrecio(String name, String value) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        try {
+            return Double.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " no es un número: " + value);
+        }
+    }
+
+    private static Date parseFecha(String name, String value, boolean endOfDay) {
+        if (StringUtils.isBlank(value)) {
+            return null;
+        }
+        String text = value.trim();
+        try {
+            if (text.length() == 10) {
+                LocalDate day = LocalDate.parse(text);
+                Instant start = (endOfDay ? day.plusDays(1) : day).atStartOfDay(ZoneOffset.UTC).toInstant();
+                return Date.from(endOfDay ? start.minusMillis(1) : start);
+            }
+            return Date.from(Instant.parse(text));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(name + " no es una fecha yyyy-MM-dd ni ISO-8601: " + value);
+        }
+    }
+
+    private static Sort parseSort(String sort) {
+        if (StringUtils.isBlank(sort)) {
+            return Sort.by("id");
+        }
+        List<Sort.Order> orders = new ArrayList<>();
+        for (String part : sort.split(",")) {
+            String field = part.trim();
+            if (field.isEmpty()) {
+                continue;
+            }
+            boolean descending = field.startsWith("-");
+            if (descending) {
+                field = field.substring(1);
+            }
+            if (!SORTABLE.contains(field)) {
+                throw new IllegalArgumentException("No se puede ordenar por: " + field);
+            }
+            orders.add(descending ? Sort.Order.desc(field) : Sort.Order.asc(field));
+        }
+        return orders.isEmpty() ? Sort.by("id") : Sort.by(orders);
+    }
+}
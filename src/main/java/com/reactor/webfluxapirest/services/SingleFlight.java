@@ -0,0 +1,139 @@
+package com.reactor.webfluxapirest.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Comparte una misma consulta entre las llamadas concurrentes con la misma clave: la primera la lanza y las que
+ * llegan mientras está en curso reciben su resultado. En cuanto termina se olvida, así que no cachea nada.
+ * <p>
+ * Si todos los suscriptores cancelan, la consulta se cancela y se retira antes de que nadie más pueda unirse;
+ * una llamada posterior lanza una nueva en lugar de esperar o heredar la cancelada.
+ * <p>
+ * Métrica productos.singleflight{method, result}: leader (lanzó la consulta), joined (se unió a una en curso)
+ * y cancelled (consultas abandonadas por todos sus suscriptores).
+ */
+public class SingleFlight<K, V> {
+
+    private final Function<K, Mono<V>> loader;
+    private final ConcurrentMap<K, Flight> flights = new ConcurrentHashMap<>();
+    private final Counter leaders;
+    private final Counter joined;
+    private final Counter cancelled;
+
+    public SingleFlight(String method, Function<K, Mono<V>> loader, MeterRegistry registry) {
+        this.loader = loader;
+        this.leaders = registry.counter("productos.singleflight", "method", method, "result", "leader");
+        this.joined = registry.counter("productos.singleflight", "method", method, "result", "joined");
+        this.cancelled = registry.counter("productos.singleflight", "method", method, "result", "cancelled");
+    }
+
+    public Mono<V> load(K key) {
+        return Mono.defer(() -> {
+            while (true) {
+                Flight current = flights.get(key);
+                if (current != null && current.join()) {
+                    joined.increment();
+                    return current.mono();
+                }
+                Flight flight = new Flight(key);
+                flight.join();
+                boolean installed = current == null
+                        ? flights.putIfAbsent(key, flight) == null
+                        : flights.replace(key, current, flight);
+                if (installed) {
+                    leaders.increment();
+                    flight.start();
+                    return flight.mono();
+                }
+            }
+        });
+    }
+
+    /**
+     * Quien llame después ya no se une a la consulta en curso de {@code key} (la lanzada antes de una escritura
+     * podría devolver el dato anterior); los que ya esperan reciben igualmente su resultado.
+     */
+    public void forget(K key) {
+        flights.remove(key);
+    }
+
+    public void forgetIf(Predicate<K> predicate) {
+        flights.keySet().removeIf(predicate);
+    }
+
+    private class Flight {
+
+        private final K key;
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        // Protegidos por this
+        private int subscribers;
+        private boolean abandoned;
+        private Disposable query;
+
+        Flight(K key) {
+            this.key = key;
+        }
+
+        synchronized boolean join() {
+            if (abandoned) {
+                return false;
+            }
+            subscribers++;
+            return true;
+        }
+
+        void start() {
+            // Se retira del mapa antes de publicar el resultado para que quien llegue después no lo reciba ya viejo
+            Disposable subscription = loader.apply(key).subscribe(
+                    value -> {
+                        flights.remove(key, this);
+                        result.complete(value);
+                    },
+                    e -> {
+                        flights.remove(key, this);
+                        result.completeExceptionally(e);
+                    },
+                    () -> {
+                        flights.remove(key, this);
+                        result.complete(null);
+                    });
+            synchronized (this) {
+                if (abandoned) {
+                    subscription.dispose();
+                } else {
+                    query = subscription;
+                }
+            }
+        }
+
+        Mono<V> mono() {
+            // Mono.fromFuture no cancela el futuro: cancelar un suscriptor no afecta a los demás
+            return Mono.fromFuture(result).doOnCancel(this::leave);
+        }
+
+        private void leave() {
+            Disposable toCancel;
+            synchronized (this) {
+                if (result.isDone() || --subscribers > 0) {
+                    return;
+                }
+                abandoned = true;
+                toCancel = query;
+            }
+            flights.remove(key, this);
+            cancelled.increment();
+            if (toCancel != null) {
+                toCancel.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.reactor.webfluxapirest.services;
+
+import com.reactor.webfluxapirest.models.Producto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Genera en segundo plano las miniaturas de una foto recién subida y las anota en el producto. Corre en un
+ * pool propio de fotos.miniaturas.workers hilos con una cola de fotos.miniaturas.queue-size: la subida sólo
+ * encola y responde, y si llega una ráfaga mayor que la cola las sobrantes se descartan (se sirve el original)
+ * en lugar de acumular imágenes en memoria.
+ * <p>
+ * Las variantes se llaman {@code <hash>-<tamaño>.<ext>} junto al original, así que fotos idénticas las comparten
+ * y {@link PhotoStorage#release(String)} las borra con él.
+ */
+@Component
+public class ThumbnailPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailPipeline.class);
+
+    @Autowired
+    private IProductService service;
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${resources}")
+    private String resources;
+    @Value("${fotos.miniaturas.enabled}")
+    private boolean enabled;
+    @Value("${fotos.miniaturas.sizes}")
+    private String sizesProperty;
+    @Value("${fotos.miniaturas.workers}")
+    private int workers;
+    @Value("${fotos.miniaturas.queue-size}")
+    private int queueSize;
+
+    private Map<String, Integer> sizes;
+    private ThreadPoolExecutor executor;
+    private Timer timer;
+    private Counter rejected;
+    private Counter failed;
+
+    @PostConstruct
+    public void init() {
+        sizes = Arrays.stream(sizesProperty.split(","))
+                .map(s -> s.trim().split("="))
+                .collect(Collectors.toMap(s -> s[0], s -> Integer.parseInt(s[1]), (a, b) -> b, LinkedHashMap::new));
+        AtomicInteger threads = new AtomicInteger();
+        executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread t = new Thread(r, "miniaturas-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        timer = registry.timer("fotos.miniaturas");
+        rejected = registry.counter("fotos.miniaturas.descartadas", "motivo", "cola-llena");
+        failed = registry.counter("fotos.miniaturas.descartadas", "motivo", "error");
+        registry.gauge("fotos.miniaturas.cola", executor, e -> e.getQueue().size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean supports(String size) {
+        return sizes.containsKey(size);
+    }
+
+    /**
+     * Encola la generación de las miniaturas de la foto actual del producto; no bloquea.
+     */
+    public void submit(Producto producto) {
+        if (!enabled || producto.getFoto() == null) {
+            return;
+        }
+        String id = producto.getId();
+        String foto = producto.getFoto();
+        try {
+            executor.execute(() -> timer.record(() -> generate(id, foto)));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            log.warn("Cola de miniaturas llena, se descarta la foto " + foto + " del producto " + id);
+        }
+    }
+
+    private void generate(String id, String foto) {
+        try {
+            Path root = Paths.get(resources);
+            BufferedImage original = ImageIO.read(root.resolve(foto).toFile());
+            if (original == null) {
+                // No es una imagen que ImageIO sepa leer: se servirá siempre el original
+                return;
+            }
+            String format = foto.endsWith(".png") || foto.endsWith(".gif") ? "png" : "jpg";
+            String stem = foto.contains(".") ? foto.substring(0, foto.lastIndexOf('.')) : foto;
+            Map<String, String> miniaturas = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> size : sizes.entrySet()) {
+                String name = stem + "-" + size.getKey() + "." + format;
+                Path target = root.resolve(name);
+                if (!Files.exists(target)) {
+                    write(resize(original, size.getValue(), format), format, root, target);
+                }
+                miniaturas.put(size.getKey(), name);
+            }
+            // Condicionado a que la foto siga siendo la misma: si ya se ha subido otra, estas miniaturas sobran
+            service.setMiniaturas(id, foto, miniaturas).block();
+        } catch (Exception e) {
+            failed.increment();
+            log.warn("No se pudieron generar las miniaturas de " + foto, e);
+        }
+    }
+
+    /**
+     * Ajusta el lado mayor a {@code max} píxeles conservando la proporción; nunca amplía.
+     */
+    private static BufferedImage resize(BufferedImage source, int max, String format) {
+        double scale = Math.min(1.0, (double) max / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage target = new BufferedImage(width, height,
+                format.equals("png") ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private static void write(BufferedImage image, String format, Path root, Path target) throws Exception {
+        Path tmp = Files.createTempFile(root, "miniatura-", ".tmp");
+        try {
+            ImageIO.write(image, format, tmp.toFile());
+            Files.move(tmp, target);
+        } catch (FileAlreadyExistsException e) {
+            // Otro hilo ha generado la misma variante a la vez
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
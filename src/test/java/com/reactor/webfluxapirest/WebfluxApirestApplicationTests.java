@@ -1,31 +1,97 @@
 package com.reactor.webfluxapirest;
 
 import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.EstadisticasCategoria;
+import com.reactor.webfluxapirest.models.Foto;
 import com.reactor.webfluxapirest.models.Producto;
+import com.reactor.webfluxapirest.models.ProductoEvento;
+import com.reactor.webfluxapirest.models.ResultadoCarga;
 import com.reactor.webfluxapirest.services.IProductService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.assertj.core.api.Assertions;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.runner.RunWith;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+// Las fotos que suben los tests van al temporal, no al directorio de fotos de desarrollo
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "resources=${java.io.tmpdir}/")
 class WebfluxApirestApplicationTests {
 
     @Autowired
     private WebTestClient client;
+    @Autowired
+    private ObjectProvider<CodecCustomizer> codecCustomizers;
 
     @Autowired
     private IProductService service;
 
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${resources}")
+    private String resources;
+
+    @LocalServerPort
+    private int port;
+
+    // Lo que crea cada test; se borra al terminar para que los demás sigan viendo sólo los datos de ejemplo
+    private final List<String> creados = new ArrayList<>();
+
+    @AfterEach
+    void borrarCreados() {
+        if (!creados.isEmpty()) {
+            service.deleteAllById(creados, true).block();
+        }
+    }
+
     @Test
     void listTest() {
         client.get()
@@ -55,6 +121,181 @@ class WebfluxApirestApplicationTests {
                 });
     }
 
+    @Test
+    void listPageTest() {
+        client.get()
+                .uri("/api/v2/productos?limit=5")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists("X-Next-Cursor")
+                .expectBodyList(Producto.class).hasSize(5);
+    }
+
+    @Test
+    void listNextPageTest() {
+
+        List<String> all = service.findAll().map(Producto::getId).sort().collectList().block();
+        List<String> seen = new ArrayList<>();
+        String cursor = null;
+        do {
+            EntityExchangeResult<List<Producto>> page = client.get()
+                    .uri("/api/v2/productos?limit=4" + (cursor == null ? "" : "&after=" + cursor))
+                    .accept(MediaType.APPLICATION_JSON)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBodyList(Producto.class)
+                    .returnResult();
+            List<String> ids = page.getResponseBody().stream().map(Producto::getId).collect(Collectors.toList());
+            Assertions.assertThat(ids).isNotEmpty().hasSizeLessThanOrEqualTo(4).isSorted();
+            if (cursor != null) {
+                // La página siguiente empieza justo después del cursor, no desde el principio
+                Assertions.assertThat(ids.get(0)).isGreaterThan(cursor);
+            }
+            Assertions.assertThat(seen).doesNotContainAnyElementsOf(ids);
+            seen.addAll(ids);
+            cursor = page.getResponseHeaders().getFirst("X-Next-Cursor");
+            if (cursor != null) {
+                Assertions.assertThat(cursor).isEqualTo(ids.get(ids.size() - 1));
+            }
+        } while (cursor != null && seen.size() <= all.size());
+
+        Assertions.assertThat(seen).isEqualTo(all);
+    }
+
+    @Test
+    void listFieldsTest() {
+        client.get()
+                .uri("/api/v2/productos?limit=1&fields=nombre,precio")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].id").isNotEmpty()
+                .jsonPath("$[0].nombre").isNotEmpty()
+                .jsonPath("$[0].categoria").doesNotExist();
+
+        client.get()
+                .uri("/api/v2/productos?fields=desconocido")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void streamTest() {
+        // WebTestClient aplica los CodecCustomizer sin orden y el de Jackson puede pisar el decoder NDJSON de
+        // CodecConfig; el servidor los aplica ordenados, así que se repiten aquí en ese orden
+        client.mutate()
+                .codecs(configurer -> codecCustomizers.orderedStream().forEach(c -> c.customize(configurer)))
+                .build()
+                .get()
+                .uri("/api/v2/productos")
+                .accept(CodecConfig.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(CodecConfig.APPLICATION_NDJSON)
+                .returnResult(Producto.class)
+                .getResponseBody()
+                .as(StepVerifier::create)
+                .expectNextCount(9)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void binaryFormatsTest() {
+        client.get()
+                .uri("/api/v2/productos?limit=5")
+                .accept(CodecConfig.APPLICATION_SMILE)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(CodecConfig.APPLICATION_SMILE)
+                .expectBodyList(Producto.class).hasSize(5);
+
+        client.get()
+                .uri("/api/v1/productos?limit=5")
+                .accept(MediaType.APPLICATION_CBOR)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+                // El Jackson2CborDecoder de Spring 5.2 no decodifica en stream: la lista se lee entera
+                .expectBody(new ParameterizedTypeReference<List<Producto>>() {
+                })
+                .value(products -> Assertions.assertThat(products).hasSize(5));
+    }
+
+    @Test
+    void searchTest() {
+        // El índice se carga en segundo plano al arrancar
+        await(() -> service.search("comoda", 1).hasElements().block());
+        client.get()
+                .uri("/api/v2/productos/buscar?q=comoda")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].nombre").isEqualTo("Mica Cómoda 5 Cajones");
+    }
+
+    @Test
+    void queryTest() {
+        client.get()
+                .uri("/api/v2/productos/consulta?precioMax=1000&sort=-precio&limit=5")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Producto.class)
+                .consumeWith(response -> {
+                    List<Producto> products = response.getResponseBody();
+                    Assertions.assertThat(products).isNotEmpty().hasSizeLessThanOrEqualTo(5);
+                    Assertions.assertThat(products).allMatch(p -> p.getPrecio() <= 1000);
+                    Assertions.assertThat(products).isSortedAccordingTo((a, b) -> Double.compare(b.getPrecio(), a.getPrecio()));
+                });
+
+        client.get()
+                .uri("/api/v1/productos/consulta?sort=foto")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void statsTest() {
+        client.get()
+                .uri("/api/v2/productos/estadisticas")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(EstadisticasCategoria.class)
+                .consumeWith(response -> {
+                    List<EstadisticasCategoria> stats = response.getResponseBody();
+                    Assertions.assertThat(stats).isNotEmpty();
+                    stats.forEach(s -> {
+                        Assertions.assertThat(s.getCategoria().getNombre()).isNotEmpty();
+                        Assertions.assertThat(s.getProductos()).isPositive();
+                        Assertions.assertThat(s.getPrecioMin()).isLessThanOrEqualTo(s.getPrecioMedio());
+                        Assertions.assertThat(s.getPrecioMedio()).isLessThanOrEqualTo(s.getPrecioMax());
+                    });
+                });
+    }
+
+    @Test
+    void categoriaBatchTest() {
+
+        List<String> nombres = List.of("Electrónica", "Deporte", "Informática", "Muebles");
+        long before = categoriaQueries();
+
+        List<Categoria> found = Flux.range(0, 40)
+                .flatMap(i -> service.findCategoriaByNombre(nombres.get(i % nombres.size())))
+                .collectList()
+                .block();
+
+        Assertions.assertThat(found).hasSize(40).allMatch(c -> nombres.contains(c.getNombre()));
+        // La primera sale sola; las 39 que llegan mientras está en curso comparten la segunda consulta
+        Assertions.assertThat(categoriaQueries() - before).isLessThanOrEqualTo(2);
+    }
+
     @Test
     void showTest() {
 
@@ -89,6 +330,240 @@ class WebfluxApirestApplicationTests {
                 });
     }
 
+    @Test
+    void findManyTest() {
+
+        Producto tv = service.findByNombre("TV Panasonic Pantalla LCD").block();
+        Producto bici = service.findByNombre("Bianchi Bicicleta").block();
+        String missing = "000000000000000000000000";
+
+        client.post()
+                .uri("/api/v2/productos/lote")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(bici.getId(), missing, tv.getId()))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.productos[0].nombre").isEqualTo("Bianchi Bicicleta")
+                .jsonPath("$.productos[1].nombre").isEqualTo("TV Panasonic Pantalla LCD")
+                .jsonPath("$.noEncontrados[0]").isEqualTo(missing);
+
+        client.get()
+                .uri("/api/v1/productos/lote?ids=" + tv.getId())
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.productos.length()").isEqualTo(1)
+                .jsonPath("$.noEncontrados").isEmpty();
+    }
+
+    @Test
+    void fotoSizeTest() {
+
+        Producto product = service.findByNombre("TV Panasonic Pantalla LCD").block();
+
+        client.get()
+                .uri("/api/v2/productos/{id}/foto?size=enorme", Collections.singletonMap("id", product.getId()))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void fotoRangeTest() {
+
+        byte[] content = randomBytes(4096);
+        String id = nuevoProducto("Producto con foto").getId();
+        creados.add(id);
+        Producto product = uploadFoto(id, content, "foto.bin");
+        String uri = "/api/v2/productos/" + product.getId() + "/foto";
+
+        EntityExchangeResult<byte[]> full = client.get()
+                .uri(uri)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(byte[].class).isEqualTo(content)
+                .returnResult();
+        String etag = full.getResponseHeaders().getETag();
+        Assertions.assertThat(etag).isNotNull();
+
+        client.get()
+                .uri(uri)
+                .header(HttpHeaders.RANGE, "bytes=100-199")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PARTIAL_CONTENT)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 100-199/4096")
+                .expectBody(byte[].class).isEqualTo(Arrays.copyOfRange(content, 100, 200));
+
+        client.get()
+                .uri(uri)
+                .ifNoneMatch(etag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+
+        client.get()
+                .uri(uri)
+                .ifModifiedSince(ZonedDateTime.ofInstant(Instant.ofEpochMilli(full.getResponseHeaders().getLastModified()), ZoneOffset.UTC))
+                .exchange()
+                .expectStatus().isNotModified();
+    }
+
+    @Test
+    void fotoDedupTest() {
+
+        byte[] content = randomBytes(2048);
+        Producto first = nuevoProducto("Foto compartida 1");
+        Producto second = nuevoProducto("Foto compartida 2");
+        creados.addAll(List.of(first.getId(), second.getId()));
+
+        // Mismo contenido, mismo fichero: se guarda una vez y cuenta dos referencias
+        String foto = uploadFoto(first.getId(), content, "a.bin").getFoto();
+        Assertions.assertThat(uploadFoto(second.getId(), content, "b.bin").getFoto()).isEqualTo(foto);
+        Assertions.assertThat(referencias(foto)).isEqualTo(2L);
+        Assertions.assertThat(Paths.get(resources, foto)).exists();
+
+        // Al cambiar la foto del primero se libera su referencia
+        String other = uploadFoto(first.getId(), randomBytes(2048), "a.bin").getFoto();
+        Assertions.assertThat(other).isNotEqualTo(foto);
+        Assertions.assertThat(referencias(foto)).isEqualTo(1L);
+        Assertions.assertThat(referencias(other)).isEqualTo(1L);
+
+        // Al borrar el último que la usa desaparecen la cuenta y el fichero
+        client.delete()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", second.getId()))
+                .exchange()
+                .expectStatus().isNoContent();
+        await(() -> referencias(foto) == null && Files.notExists(Paths.get(resources, foto)));
+
+        client.delete()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", first.getId()))
+                .exchange()
+                .expectStatus().isNoContent();
+        await(() -> referencias(other) == null && Files.notExists(Paths.get(resources, other)));
+    }
+
+    @Test
+    void miniaturasVersionTest() throws IOException {
+
+        Producto product = nuevoProducto("Miniaturas " + new ObjectId());
+        creados.add(product.getId());
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, ThreadLocalRandom.current().nextInt());
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        Producto uploaded = uploadFoto(product.getId(), png.toByteArray(), "miniaturas.png");
+        await(() -> service.findById(product.getId()).map(p -> p.getMiniaturas() != null).block());
+
+        // Las miniaturas se anotan sin cambiar la versión: la de la subida sigue valiendo para If-Match
+        Producto current = service.findById(product.getId()).block();
+        Assertions.assertThat(current.getVersion()).isEqualTo(uploaded.getVersion());
+        client.put()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", product.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "W/\"" + uploaded.getVersion() + "\"")
+                .bodyValue(current)
+                .exchange()
+                .expectStatus().isCreated();
+    }
+
+    @Test
+    void deleteManyTest() {
+
+        Categoria category = service.saveCategoria(new Categoria("Borrado " + new ObjectId())).block();
+        Producto first = service.save(new Producto("Borrar 1", 1.0, category)).block();
+        Producto second = service.save(new Producto("Borrar 2", 2.0, category)).block();
+        Producto third = service.save(new Producto("Borrar 3", 3.0, category)).block();
+        creados.addAll(List.of(first.getId(), second.getId(), third.getId()));
+        String missing = "000000000000000000000000";
+        String borrada = uploadFoto(first.getId(), randomBytes(1024), "borrada.bin").getFoto();
+        String conservada = uploadFoto(third.getId(), randomBytes(1024), "conservada.bin").getFoto();
+
+        client.delete()
+                .uri("/api/v2/productos?fotos=true&ids=" + first.getId() + "," + second.getId() + "," + missing)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.eliminados").isEqualTo(2);
+        await(() -> referencias(borrada) == null && Files.notExists(Paths.get(resources, borrada)));
+
+        client.get()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", first.getId()))
+                .exchange()
+                .expectStatus().isNotFound();
+
+        // Sin fotos=true la referencia se libera igual, pero el fichero se queda en disco
+        client.delete()
+                .uri("/api/v1/productos?categoria=" + category.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.eliminados").isEqualTo(1);
+        await(() -> referencias(conservada) == null);
+        Assertions.assertThat(Paths.get(resources, conservada)).exists();
+
+        client.delete()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", missing))
+                .exchange()
+                .expectStatus().isNotFound();
+
+        client.delete()
+                .uri("/api/v2/productos")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void eventsTest() {
+
+        List<ServerSentEvent<ProductoEvento>> recibidos = new CopyOnWriteArrayList<>();
+        Disposable suscripcion = WebClient.create("http://localhost:" + port).get()
+                .uri("/api/v2/productos/eventos")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .retrieve()
+                .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<ProductoEvento>>() {
+                })
+                .filter(e -> e.data() != null)
+                .subscribe(recibidos::add);
+        try {
+            // El servidor se suscribe a los eventos después de aceptar la conexión: se modifica un mismo producto
+            // hasta que llega el primero
+            Producto testigo = nuevoProducto("Eventos testigo");
+            creados.add(testigo.getId());
+            Producto cambio = new Producto();
+            await(() -> {
+                cambio.setPrecio(ThreadLocalRandom.current().nextDouble(100));
+                service.patch(testigo.getId(), cambio, null).block();
+                return !recibidos.isEmpty();
+            });
+
+            Producto product = nuevoProducto("Eventos");
+            creados.add(product.getId());
+            client.patch()
+                    .uri("/api/v2/productos/{id}", Collections.singletonMap("id", product.getId()))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue(Collections.singletonMap("precio", 12.5))
+                    .exchange()
+                    .expectStatus().isOk();
+            client.delete()
+                    .uri("/api/v2/productos/{id}", Collections.singletonMap("id", product.getId()))
+                    .exchange()
+                    .expectStatus().isNoContent();
+
+            await(() -> recibidos.stream().filter(e -> product.getId().equals(e.id())).count() == 3);
+            List<ServerSentEvent<ProductoEvento>> eventos = recibidos.stream()
+                    .filter(e -> product.getId().equals(e.id()))
+                    .collect(Collectors.toList());
+            Assertions.assertThat(eventos).extracting(ServerSentEvent::event)
+                    .containsExactly(ProductoEvento.CREADO, ProductoEvento.ACTUALIZADO, ProductoEvento.ELIMINADO);
+            Assertions.assertThat(eventos.get(1).data().getProducto().getPrecio()).isEqualTo(12.5);
+            Assertions.assertThat(eventos.get(2).data().getProducto()).isNull();
+        } finally {
+            suscripcion.dispose();
+        }
+    }
+
     @Test
     void createTest() {
         Mono<Categoria> category = service.findCategoriaByNombre("Muebles");
@@ -133,6 +608,56 @@ class WebfluxApirestApplicationTests {
                 });
     }
 
+    @Test
+    void bulkTest() {
+        Categoria category = service.findCategoriaByNombre("Deporte").block();
+
+        client.post()
+                .uri("/api/v2/productos/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .body(Flux.just(new Producto("Balón", 19.99, category), new Producto("", null, category)), Producto.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(ResultadoCarga.class)
+                .hasSize(2)
+                .consumeWith(response -> {
+                    List<ResultadoCarga> resultados = response.getResponseBody();
+                    resultados.stream().map(ResultadoCarga::getId).filter(Objects::nonNull).forEach(creados::add);
+                    Assertions.assertThat(resultados.get(0).getEstado()).isEqualTo(ResultadoCarga.CREADO);
+                    Assertions.assertThat(resultados.get(0).getId()).isNotEmpty();
+                    Assertions.assertThat(resultados.get(1).getEstado()).isEqualTo(ResultadoCarga.ERROR);
+                });
+    }
+
+    @Test
+    void bulkDuplicateTest() {
+        Producto existing = service.findByNombre("Bianchi Bicicleta").block();
+        Producto duplicate = new Producto("Bicicleta repetida", 99.0, existing.getCategoria());
+        duplicate.setId(existing.getId());
+
+        // Sin orden: el duplicado no impide insertar el que va detrás y éste queda en caché e índice
+        client.post()
+                .uri("/api/v2/productos/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .body(Flux.just(duplicate, new Producto("Casco", 45.0, existing.getCategoria())), Producto.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(ResultadoCarga.class)
+                .hasSize(2)
+                .consumeWith(response -> {
+                    List<ResultadoCarga> resultados = response.getResponseBody();
+                    resultados.stream().map(ResultadoCarga::getId).filter(Objects::nonNull).forEach(creados::add);
+                    Assertions.assertThat(resultados.get(0).getEstado()).isEqualTo(ResultadoCarga.ERROR);
+                    Assertions.assertThat(resultados.get(0).getErrores()).containsExactly("Ya existe un producto con id " + existing.getId());
+                    Assertions.assertThat(resultados.get(1).getEstado()).isEqualTo(ResultadoCarga.CREADO);
+                });
+
+        Assertions.assertThat(service.findById(existing.getId()).block().getNombre()).isEqualTo("Bianchi Bicicleta");
+        Assertions.assertThat(service.search("casco", 10).map(Producto::getNombre).collectList().block()).contains("Casco");
+    }
+
     @Test
     void updateTest() {
 
@@ -181,6 +706,86 @@ class WebfluxApirestApplicationTests {
                 });
     }
 
+    @Test
+    void patchTest() {
+
+        Producto product = service.findByNombre("Apple Ipod").block();
+
+        client.patch()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", product.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(Collections.singletonMap("precio", 39.99))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.nombre").isEqualTo("Apple Ipod")
+                .jsonPath("$.precio").isEqualTo(39.99)
+                .jsonPath("$.categoria.nombre").isEqualTo("Electrónica");
+    }
+
+    @Test
+    void conditionalRequestsTest() {
+
+        Producto product = service.findByNombre("Bianchi Bicicleta").block();
+        long version = product.getVersion();
+        String etag = "W/\"" + version + "\"";
+
+        client.get()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", product.getId()))
+                .ifNoneMatch(etag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+
+        client.put()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", product.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, etag)
+                .bodyValue(product)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "W/\"" + (version + 1) + "\"");
+
+        client.put()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", product.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, etag)
+                .bodyValue(product)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+        // Sólo vale la etiqueta exacta del producto completo: ni la fuerte ni la de una proyección
+        long current = version + 1;
+        for (String tag : Arrays.asList("\"" + current + "\"", "W/\"" + current + "-1f\"", "W/" + current)) {
+            client.put()
+                    .uri("/api/v2/productos/{id}", Collections.singletonMap("id", product.getId()))
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .header(HttpHeaders.IF_MATCH, tag)
+                    .bodyValue(product)
+                    .exchange()
+                    .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        }
+
+        client.put()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", product.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, etag + ", W/\"" + current + "\"")
+                .bodyValue(product)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "W/\"" + (current + 1) + "\"");
+
+        client.put()
+                .uri("/api/v2/productos/{id}", Collections.singletonMap("id", product.getId()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "*")
+                .bodyValue(product)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "W/\"" + (current + 2) + "\"");
+    }
+
     @Test
     void deleteTest2() {
 
@@ -201,4 +806,54 @@ class WebfluxApirestApplicationTests {
                 .isEmpty();
     }
 
+    private Producto nuevoProducto(String nombre) {
+        Categoria category = service.findCategoriaByNombre("Electrónica").block();
+        return service.save(new Producto(nombre, 10.0, category)).block();
+    }
+
+    private Producto uploadFoto(String id, byte[] content, String filename) {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("file", content).filename(filename);
+        return client.post()
+                .uri("/api/v2/productos/upload/{id}", Collections.singletonMap("id", id))
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(body.build()))
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody(Producto.class)
+                .returnResult()
+                .getResponseBody();
+    }
+
+    private long categoriaQueries() {
+        return registry.find("mongo.commands").tag("collection", "categorias").tag("operation", "find").timers().stream()
+                .mapToLong(Timer::count)
+                .sum();
+    }
+
+    private Long referencias(String foto) {
+        return mongoTemplate.findById(foto, Foto.class).map(Foto::getReferencias).block();
+    }
+
+    /**
+     * Espera a lo que se hace en segundo plano tras la respuesta, como liberar fotos.
+     */
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            Assertions.assertThat(System.nanoTime()).as("esperando la condición").isLessThan(deadline);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
 }
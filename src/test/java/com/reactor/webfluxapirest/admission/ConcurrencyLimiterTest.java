@@ -0,0 +1,100 @@
+package com.reactor.webfluxapirest.admission;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.test.StepVerifier;
+import reactor.test.util.RaceTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+class ConcurrencyLimiterTest {
+
+    @Test
+    void queueFullTest() {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, Duration.ofSeconds(10));
+        ConcurrencyLimiter.Permit first = limiter.acquire().block();
+        AtomicReference<ConcurrencyLimiter.Permit> second = new AtomicReference<>();
+        limiter.acquire().subscribe(second::set);
+
+        StepVerifier.create(limiter.acquire())
+                .expectErrorSatisfies(e -> Assertions.assertThat(e)
+                        .isInstanceOf(AdmissionRejectedException.class)
+                        .extracting("reason").isEqualTo(ConcurrencyLimiter.Rejection.QUEUE_FULL))
+                .verify();
+        Assertions.assertThat(limiter.getQueued()).isEqualTo(1);
+
+        // Al liberar, el permiso pasa directamente al que esperaba en la cola
+        first.release(false);
+        Assertions.assertThat(second.get()).isNotNull();
+        Assertions.assertThat(limiter.getInFlight()).isEqualTo(1);
+        Assertions.assertThat(limiter.getQueued()).isZero();
+
+        second.get().release(false);
+        second.get().release(false);
+        Assertions.assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void queueTimeoutTest() {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, Duration.ofMillis(100));
+        ConcurrencyLimiter.Permit first = limiter.acquire().block();
+
+        StepVerifier.create(limiter.acquire())
+                .expectErrorSatisfies(e -> Assertions.assertThat(e)
+                        .isInstanceOf(AdmissionRejectedException.class)
+                        .extracting("reason").isEqualTo(ConcurrencyLimiter.Rejection.TIMEOUT))
+                .verify(Duration.ofSeconds(5));
+        Assertions.assertThat(limiter.getQueued()).isZero();
+
+        first.release(false);
+        Assertions.assertThat(limiter.getInFlight()).isZero();
+        StepVerifier.create(limiter.acquire())
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void cancelWhileQueuedTest() {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, Duration.ofSeconds(10));
+        ConcurrencyLimiter.Permit first = limiter.acquire().block();
+        Disposable waiting = limiter.acquire().subscribe();
+        Assertions.assertThat(limiter.getQueued()).isEqualTo(1);
+
+        waiting.dispose();
+        Assertions.assertThat(limiter.getQueued()).isZero();
+
+        first.release(false);
+        Assertions.assertThat(limiter.getInFlight()).isZero();
+    }
+
+    /**
+     * El permiso que se libera y el cliente que se va a la vez. El suscriptor no pide nada, así que un permiso
+     * concedido antes de la cancelación se queda en el sink y se descarta: el limitador tiene que recuperarlo.
+     */
+    @Test
+    void grantCancelRaceTest() {
+
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, Duration.ofSeconds(10));
+        for (int i = 0; i < 1_000; i++) {
+            ConcurrencyLimiter.Permit first = limiter.acquire().block();
+            BaseSubscriber<ConcurrencyLimiter.Permit> waiting = new BaseSubscriber<ConcurrencyLimiter.Permit>() {
+                @Override
+                protected void hookOnSubscribe(Subscription subscription) {
+                }
+            };
+            limiter.acquire().subscribe(waiting);
+
+            RaceTestUtils.race(() -> first.release(false), waiting::dispose);
+
+            Assertions.assertThat(limiter.getInFlight()).as("permisos en uso tras la vuelta %d", i).isZero();
+            Assertions.assertThat(limiter.getQueued()).as("en cola tras la vuelta %d", i).isZero();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.reactor.webfluxapirest.loadtest;
+
+import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.Producto;
+import com.reactor.webfluxapirest.services.IProductService;
+import com.reactor.webfluxapirest.services.PhotoStorage;
+import com.reactor.webfluxapirest.support.InMemoryPhotoStorage;
+import com.reactor.webfluxapirest.support.InMemoryProductService;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Prueba de carga de /api/v1 (controlador) frente a /api/v2 (router funcional) sobre un servicio en memoria,
+ * sin Mongo ni red. Se ejecuta sólo con -Dloadtest=true:
+ *
+ * <pre>
+ * mvn test -Dtest=ApiLoadTest -Dloadtest=true -Dloadtest.concurrency=64 -Dloadtest.requests=50000 \
+ *     -Dloadtest.mix=list:30,show:50,create:10,update:8,upload:2
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "loadtest", matches = "true")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "eureka.client.enabled=false",
+        "seed.enabled=false",
+        "indices.enabled=false",
+        "search.enabled=false",
+        "estadisticas.enabled=false",
+        "resources=${java.io.tmpdir}/"
+})
+class ApiLoadTest {
+
+    private static final int CONCURRENCY = Integer.getInteger("loadtest.concurrency", 32);
+    private static final int REQUESTS = Integer.getInteger("loadtest.requests", 20000);
+    private static final int WARMUP = Integer.getInteger("loadtest.warmup", 2000);
+    private static final String MIX = System.getProperty("loadtest.mix", "list:30,show:50,create:10,update:8,upload:2");
+    private static final int CATALOG_SIZE = 1000;
+
+    @TestConfiguration
+    static class InMemoryConfig {
+
+        @Bean
+        @Primary
+        IProductService inMemoryProductService() {
+            List<Categoria> categorias = new ArrayList<>();
+            for (String nombre : List.of("Electrónica", "Deporte", "Informática", "Muebles")) {
+                Categoria c = new Categoria(nombre);
+                c.setId(new ObjectId().toHexString());
+                categorias.add(c);
+            }
+            List<Producto> productos = new ArrayList<>();
+            for (int i = 0; i < CATALOG_SIZE; i++) {
+                Producto p = new Producto("Producto " + i, 10.0 + i, categorias.get(i % categorias.size()));
+                p.setId(new ObjectId().toHexString());
+                p.setCreateAt(new Date());
+                productos.add(p);
+            }
+            return new InMemoryProductService(productos);
+        }
+
+        @Bean
+        @Primary
+        PhotoStorage inMemoryPhotoStorage() throws Exception {
+            return new InMemoryPhotoStorage(Files.createTempDirectory("loadtest-fotos"));
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private IProductService service;
+
+    @Test
+    void compareApiVersions() {
+        WebClient client = WebClient.builder()
+                .baseUrl("http://localhost:" + port)
+                .codecs(c -> c.defaultCodecs().maxInMemorySize(4 * 1024 * 1024))
+                .build();
+        List<Producto> catalog = service.findAll().collectList().block();
+        byte[] photo = new byte[16 * 1024];
+        ThreadLocalRandom.current().nextBytes(photo);
+
+        for (String api : List.of("v1", "v2")) {
+            Map<String, Function<Producto, Mono<?>>> ops = operations(client, "/api/" + api + "/productos", photo);
+            List<String> plan = plan(ops.keySet());
+
+            run(ops, plan, catalog, WARMUP, null);
+
+            Map<String, Histogram> histograms = new LinkedHashMap<>();
+            ops.keySet().forEach(op -> histograms.put(op, new ConcurrentHistogram(Duration.ofSeconds(60).toNanos(), 3)));
+            long start = System.nanoTime();
+            run(ops, plan, catalog, REQUESTS, histograms);
+            long elapsed = System.nanoTime() - start;
+
+            report(api, histograms, elapsed);
+        }
+    }
+
+    private Map<String, Function<Producto, Mono<?>>> operations(WebClient client, String base, byte[] photo) {
+        Map<String, Function<Producto, Mono<?>>> ops = new LinkedHashMap<>();
+        ops.put("list", p -> client.get().uri(base + "?limit=20").accept(MediaType.APPLICATION_JSON)
+                .retrieve().toBodilessEntity());
+        ops.put("show", p -> client.get().uri(base + "/{id}", p.getId()).accept(MediaType.APPLICATION_JSON)
+                .retrieve().toBodilessEntity());
+        ops.put("create", p -> client.post().uri(base).contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Producto("Nuevo " + p.getNombre(), p.getPrecio(), p.getCategoria()))
+                .retrieve().toBodilessEntity());
+        ops.put("update", p -> client.put().uri(base + "/{id}", p.getId()).contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new Producto(p.getNombre(), p.getPrecio() + 1, p.getCategoria()))
+                .retrieve().toBodilessEntity());
+        ops.put("upload", p -> {
+            MultipartBodyBuilder body = new MultipartBodyBuilder();
+            body.part("file", new ByteArrayResource(photo) {
+                @Override
+                public String getFilename() {
+                    return "foto.jpg";
+                }
+            });
+            return client.post().uri(base + "/upload/{id}", p.getId())
+                    .body(BodyInserters.fromMultipartData(body.build()))
+                    .retrieve().toBodilessEntity();
+        });
+        return ops;
+    }
+
+    /**
+     * Secuencia de operaciones con las proporciones de loadtest.mix, recorrida cíclicamente.
+     */
+    private static List<String> plan(Set<String> available) {
+        List<String> plan = new ArrayList<>();
+        for (String entry : MIX.split(",")) {
+            String[] kv = entry.trim().split(":");
+            if (!available.contains(kv[0])) {
+                throw new IllegalArgumentException("Operación desconocida en loadtest.mix: " + kv[0]);
+            }
+            for (int i = 0; i < Integer.parseInt(kv[1]); i++) {
+                plan.add(kv[0]);
+            }
+        }
+        return plan;
+    }
+
+    private static void run(Map<String, Function<Producto, Mono<?>>> ops, List<String> plan, List<Producto> catalog,
+                            int requests, Map<String, Histogram> histograms) {
+        Flux.range(0, requests)
+                .flatMap(i -> {
+                    String op = plan.get(i % plan.size());
+                    Producto target = catalog.get(ThreadLocalRandom.current().nextInt(catalog.size()));
+                    return Mono.defer(() -> {
+                        long start = System.nanoTime();
+                        return ops.get(op).apply(target)
+                                .doOnSuccess(r -> {
+                                    if (histograms != null) {
+                                        histograms.get(op).recordValue(System.nanoTime() - start);
+                                    }
+                                });
+                    });
+                }, CONCURRENCY)
+                .blockLast();
+    }
+
+    private static void report(String api, Map<String, Histogram> histograms, long elapsedNanos) {
+        Histogram total = new Histogram(Duration.ofSeconds(60).toNanos(), 3);
+        histograms.values().forEach(total::add);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%n=== /api/%s  concurrency=%d  requests=%d  mix=%s%n", api, CONCURRENCY, REQUESTS, MIX));
+        sb.append(String.format("%-8s %10s %12s %10s %10s %10s%n", "op", "count", "req/s", "p50 ms", "p99 ms", "p999 ms"));
+        histograms.forEach((op, h) -> sb.append(line(op, h, elapsedNanos)));
+        sb.append(line("total", total, elapsedNanos));
+        System.out.println(sb);
+    }
+
+    private static String line(String op, Histogram h, long elapsedNanos) {
+        return String.format("%-8s %10d %12.1f %10.3f %10.3f %10.3f%n", op, h.getTotalCount(),
+                h.getTotalCount() / (elapsedNanos / 1e9),
+                h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6, h.getValueAtPercentile(99.9) / 1e6);
+    }
+}
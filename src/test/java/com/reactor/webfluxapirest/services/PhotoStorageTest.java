@@ -0,0 +1,83 @@
+package com.reactor.webfluxapirest.services;
+
+import com.mongodb.client.result.DeleteResult;
+import com.reactor.webfluxapirest.models.Foto;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+class PhotoStorageTest {
+
+    private static final String FOTO = "abc.png";
+
+    @TempDir
+    Path root;
+
+    private final ReactiveMongoTemplate mongoTemplate = Mockito.mock(ReactiveMongoTemplate.class);
+    private final PhotoStorage storage = new PhotoStorage();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        ReflectionTestUtils.setField(storage, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(storage, "resources", root.toString());
+        Files.write(root.resolve(FOTO), new byte[]{1, 2, 3});
+        Files.write(root.resolve("abc-small.png"), new byte[]{1});
+
+        // La última referencia se libera y el documento de la foto se borra
+        Foto foto = new Foto();
+        foto.setId(FOTO);
+        Mockito.when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(Foto.class)))
+                .thenReturn(Mono.just(foto));
+        Mockito.when(mongoTemplate.remove(any(Query.class), eq(Foto.class)))
+                .thenReturn(Mono.just(DeleteResult.acknowledged(1)));
+    }
+
+    @Test
+    void releaseLastReferenceTest() {
+
+        Mockito.when(mongoTemplate.exists(any(Query.class), eq(Foto.class))).thenReturn(Mono.just(false));
+
+        storage.release(FOTO).block();
+
+        Assertions.assertThat(root.resolve(FOTO)).doesNotExist();
+        Assertions.assertThat(root.resolve("abc-small.png")).doesNotExist();
+        Assertions.assertThat(root).isEmptyDirectory();
+    }
+
+    @Test
+    void releaseWhileStoredAgainTest() {
+
+        // Un store ha vuelto a contar la foto entre el borrado del documento y el del fichero
+        Mockito.when(mongoTemplate.exists(any(Query.class), eq(Foto.class))).thenReturn(Mono.just(true));
+
+        storage.release(FOTO).block();
+
+        Assertions.assertThat(root.resolve(FOTO)).hasBinaryContent(new byte[]{1, 2, 3});
+        Assertions.assertThat(root.resolve("abc-small.png")).exists();
+        Assertions.assertThat(root.toFile().list()).containsExactlyInAnyOrder(FOTO, "abc-small.png");
+    }
+
+    @Test
+    void releaseKeepingFileTest() {
+
+        storage.release(FOTO, false).block();
+
+        Assertions.assertThat(root.resolve(FOTO)).exists();
+        Mockito.verify(mongoTemplate, Mockito.never()).exists(any(Query.class), eq(Foto.class));
+    }
+}
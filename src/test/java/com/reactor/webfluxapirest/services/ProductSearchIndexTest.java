@@ -0,0 +1,81 @@
+package com.reactor.webfluxapirest.services;
+
+import com.reactor.webfluxapirest.models.Producto;
+import com.reactor.webfluxapirest.repository.ProductoRepository;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.test.publisher.TestPublisher;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+class ProductSearchIndexTest {
+
+    private final ProductoRepository productoRepository = Mockito.mock(ProductoRepository.class);
+    private final TestPublisher<Producto> findAll = TestPublisher.create();
+    private final ProductSearchIndex index = new ProductSearchIndex();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(index, "productoRepository", productoRepository);
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "timeout", Duration.ofSeconds(10));
+        Mockito.when(productoRepository.findAll()).thenReturn(findAll.flux());
+    }
+
+    @Test
+    void copiesTest() {
+
+        Producto casco = producto("1", "Casco");
+        index.put(casco);
+        casco.setNombre("Balón");
+        index.search("casco", 10).get(0).setNombre("Balón");
+
+        Assertions.assertThat(nombres("casco")).containsExactly("Casco");
+    }
+
+    @Test
+    void loadInBackgroundTest() {
+
+        index.run();
+        Assertions.assertThat(nombres("casco")).isEmpty();
+
+        // Escrituras del servicio mientras la carga sigue leyendo
+        index.put(producto("1", "Casco integral"));
+        index.put(producto("2", "Balón"));
+        index.remove("2");
+
+        findAll.emit(producto("1", "Casco"), producto("2", "Balón"), producto("3", "Casco bici"));
+
+        Assertions.assertThat(nombres("casco")).containsExactlyInAnyOrder("Casco integral", "Casco bici");
+        Assertions.assertThat(nombres("balon")).isEmpty();
+
+        // Terminada la carga, un producto borrado se puede volver a indexar
+        index.put(producto("2", "Balón"));
+        Assertions.assertThat(nombres("balon")).containsExactly("Balón");
+    }
+
+    @Test
+    void loadErrorTest() {
+
+        index.run();
+        index.put(producto("1", "Casco"));
+        findAll.error(new IllegalStateException("sin conexión"));
+
+        Assertions.assertThat(nombres("casco")).containsExactly("Casco");
+    }
+
+    private List<String> nombres(String text) {
+        return index.search(text, 10).stream().map(Producto::getNombre).collect(Collectors.toList());
+    }
+
+    private static Producto producto(String id, String nombre) {
+        Producto producto = new Producto(nombre, 10.0);
+        producto.setId(id);
+        return producto;
+    }
+}
@@ -0,0 +1,65 @@
+package com.reactor.webfluxapirest.services;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactor.webfluxapirest.models.Producto;
+import com.reactor.webfluxapirest.repository.CategoriaRepository;
+import com.reactor.webfluxapirest.repository.ProductoRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.test.publisher.TestPublisher;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+class ProductServiceImplTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final ProductoRepository productoRepository = Mockito.mock(ProductoRepository.class);
+    private final AsyncCache<String, Producto> productoCache = Caffeine.newBuilder().buildAsync();
+    private final TestPublisher<Producto> query = TestPublisher.create();
+    private final ProductServiceImpl service = new ProductServiceImpl();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(service, "productoRepository", productoRepository);
+        ReflectionTestUtils.setField(service, "categoriaRepository", Mockito.mock(CategoriaRepository.class));
+        ReflectionTestUtils.setField(service, "productoCache", productoCache);
+        ReflectionTestUtils.setField(service, "registry", registry);
+        ReflectionTestUtils.setField(service, "loaderMaxBatch", 10);
+        service.init();
+        Mockito.when(productoRepository.findById("1")).thenReturn(query.mono());
+    }
+
+    @Test
+    void findByIdFlightMetricTest() {
+
+        AtomicReference<Producto> first = new AtomicReference<>();
+        AtomicReference<Producto> second = new AtomicReference<>();
+        service.findById("1").subscribe(first::set);
+        service.findById("1").subscribe(second::set);
+        Mockito.verify(productoRepository, Mockito.times(1)).findById("1");
+
+        Producto producto = new Producto("Casco", 10.0);
+        producto.setId("1");
+        query.emit(producto);
+        Assertions.assertThat(first.get().getNombre()).isEqualTo("Casco");
+        Assertions.assertThat(second.get().getNombre()).isEqualTo("Casco");
+        Assertions.assertThat(first.get()).isNotSameAs(second.get());
+        Assertions.assertThat(count("leader")).isEqualTo(1);
+        Assertions.assertThat(count("joined")).isEqualTo(1);
+
+        // Un acierto de caché no es ni leader ni joined
+        Assertions.assertThat(service.findById("1").block().getNombre()).isEqualTo("Casco");
+        Assertions.assertThat(count("leader")).isEqualTo(1);
+        Assertions.assertThat(count("joined")).isEqualTo(1);
+    }
+
+    private double count(String result) {
+        return registry.counter("productos.singleflight", "method", "findById", "result", result).count();
+    }
+}
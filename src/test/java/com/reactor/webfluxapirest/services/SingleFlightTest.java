@@ -0,0 +1,107 @@
+package com.reactor.webfluxapirest.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.test.publisher.TestPublisher;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+class SingleFlightTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private final List<TestPublisher<String>> queries = new CopyOnWriteArrayList<>();
+    private final SingleFlight<String, String> flight = new SingleFlight<>("test", key -> {
+        TestPublisher<String> query = TestPublisher.create();
+        queries.add(query);
+        return query.mono();
+    }, registry);
+
+    @Test
+    void sharedResultTest() {
+
+        AtomicReference<String> first = new AtomicReference<>();
+        AtomicReference<String> second = new AtomicReference<>();
+        flight.load("k").subscribe(first::set);
+        flight.load("k").subscribe(second::set);
+        Assertions.assertThat(queries).hasSize(1);
+
+        queries.get(0).emit("v");
+        Assertions.assertThat(first.get()).isEqualTo("v");
+        Assertions.assertThat(second.get()).isEqualTo("v");
+        Assertions.assertThat(count("leader")).isEqualTo(1);
+        Assertions.assertThat(count("joined")).isEqualTo(1);
+    }
+
+    @Test
+    void lateSubscriberAfterCompletionTest() {
+
+        flight.load("k").subscribe();
+        queries.get(0).emit("viejo");
+
+        // Terminada la consulta no queda nada a lo que unirse: quien llega después lanza otra y ve el dato nuevo
+        AtomicReference<String> late = new AtomicReference<>();
+        flight.load("k").subscribe(late::set);
+        Assertions.assertThat(queries).hasSize(2);
+        queries.get(1).emit("nuevo");
+        Assertions.assertThat(late.get()).isEqualTo("nuevo");
+        Assertions.assertThat(count("joined")).isZero();
+    }
+
+    @Test
+    void errorSharedTest() {
+
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        flight.load("k").subscribe(v -> { }, errors::add);
+        flight.load("k").subscribe(v -> { }, errors::add);
+
+        IllegalStateException failure = new IllegalStateException("Mongo no responde");
+        queries.get(0).error(failure);
+        Assertions.assertThat(errors).containsExactly(failure, failure);
+
+        // El error tampoco se queda: la siguiente llamada vuelve a consultar
+        flight.load("k").subscribe();
+        Assertions.assertThat(queries).hasSize(2);
+    }
+
+    @Test
+    void firstSubscriberCancelTest() {
+
+        Disposable first = flight.load("k").subscribe();
+        AtomicReference<String> second = new AtomicReference<>();
+        flight.load("k").subscribe(second::set);
+
+        // Cancela quien lanzó la consulta, pero sigue habiendo quien espera: la consulta continúa
+        first.dispose();
+        queries.get(0).assertWasNotCancelled();
+        queries.get(0).emit("v");
+        Assertions.assertThat(second.get()).isEqualTo("v");
+        Assertions.assertThat(count("cancelled")).isZero();
+    }
+
+    @Test
+    void allSubscribersCancelTest() {
+
+        Disposable first = flight.load("k").subscribe();
+        Disposable second = flight.load("k").subscribe();
+        first.dispose();
+        second.dispose();
+        queries.get(0).assertWasCancelled();
+        Assertions.assertThat(count("cancelled")).isEqualTo(1);
+
+        // La abandonada se ha retirado: la siguiente llamada no hereda la cancelación
+        AtomicReference<String> next = new AtomicReference<>();
+        flight.load("k").subscribe(next::set);
+        Assertions.assertThat(queries).hasSize(2);
+        queries.get(1).emit("v");
+        Assertions.assertThat(next.get()).isEqualTo("v");
+    }
+
+    private double count(String result) {
+        return registry.counter("productos.singleflight", "method", "test", "result", result).count();
+    }
+}
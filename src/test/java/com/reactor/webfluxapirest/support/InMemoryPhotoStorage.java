@@ -0,0 +1,34 @@
+package com.reactor.webfluxapirest.support;
+
+import com.reactor.webfluxapirest.services.PhotoStorage;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.codec.multipart.FilePart;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Escribe las fotos en un directorio temporal sin llevar la cuenta de referencias en Mongo.
+ */
+public class InMemoryPhotoStorage extends PhotoStorage {
+
+    private final Path root;
+
+    public InMemoryPhotoStorage(Path root) {
+        this.root = root;
+    }
+
+    @Override
+    public Mono<String> store(FilePart file) {
+        return Mono.fromCallable(() -> Files.createTempFile(root, "upload-", PhotoStorage.extension(file.filename())))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(path -> DataBufferUtils.write(file.content(), path).thenReturn(path.getFileName().toString()));
+    }
+
+    @Override
+    public Mono<Void> release(String name, boolean deleteFile) {
+        return Mono.empty();
+    }
+}
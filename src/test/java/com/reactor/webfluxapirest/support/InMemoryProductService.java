@@ -0,0 +1,262 @@
+package com.reactor.webfluxapirest.support;
+
+import com.reactor.webfluxapirest.models.Categoria;
+import com.reactor.webfluxapirest.models.EstadisticasCategoria;
+import com.reactor.webfluxapirest.models.Producto;
+import com.reactor.webfluxapirest.services.IProductService;
+import com.reactor.webfluxapirest.services.ProductSearchIndex;
+import com.reactor.webfluxapirest.services.ProductoETags;
+import com.reactor.webfluxapirest.services.ProductoFilter;
+import org.bson.types.ObjectId;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Sort;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+/**
+ * Sustituto en memoria del servicio para medir la capa web sin Mongo (benchmarks y pruebas de carga).
+ */
+public class InMemoryProductService implements IProductService {
+
+    private final ConcurrentSkipListMap<String, Producto> productos = new ConcurrentSkipListMap<>();
+    private final Map<String, Categoria> categorias = new ConcurrentHashMap<>();
+
+    public InMemoryProductService(List<Producto> data) {
+        data.forEach(p -> {
+            productos.put(p.getId(), p);
+            categorias.put(p.getCategoria().getId(), p.getCategoria());
+        });
+    }
+
+    @Override
+    public Flux<Producto> findAll() {
+        return Flux.fromIterable(productos.values());
+    }
+
+    @Override
+    public Flux<Producto> findPage(String after, int limit) {
+        return streamAll(after).take(limit);
+    }
+
+    @Override
+    public Flux<Producto> findPage(String after, int limit, Set<String> fields) {
+        return findPage(after, limit);
+    }
+
+    @Override
+    public Flux<Producto> streamAll(String after) {
+        return Flux.fromIterable(after == null ? productos.values() : productos.tailMap(after, false).values());
+    }
+
+    @Override
+    public Flux<Producto> findByFilter(ProductoFilter filter, int limit, Set<String> fields) {
+        Comparator<Producto> order = null;
+        for (Sort.Order o : filter.getSort()) {
+            Comparator<Producto> c;
+            switch (o.getProperty()) {
+                case "nombre":
+                    c = Comparator.comparing(Producto::getNombre, Comparator.nullsFirst(Comparator.naturalOrder()));
+                    break;
+                case "precio":
+                    c = Comparator.comparing(Producto::getPrecio, Comparator.nullsFirst(Comparator.naturalOrder()));
+                    break;
+                case "createAt":
+                    c = Comparator.comparing(Producto::getCreateAt, Comparator.nullsFirst(Comparator.naturalOrder()));
+                    break;
+                default:
+                    c = Comparator.comparing(Producto::getId);
+            }
+            c = o.isDescending() ? c.reversed() : c;
+            order = order == null ? c : order.thenComparing(c);
+        }
+        return Flux.fromStream(productos.values().stream()
+                .filter(p -> filter.getCategoriaId() == null
+                        || p.getCategoria() != null && filter.getCategoriaId().equals(p.getCategoria().getId()))
+                .filter(p -> filter.getPrecioMin() == null || p.getPrecio() != null && p.getPrecio() >= filter.getPrecioMin())
+                .filter(p -> filter.getPrecioMax() == null || p.getPrecio() != null && p.getPrecio() <= filter.getPrecioMax())
+                .filter(p -> filter.getDesde() == null || p.getCreateAt() != null && !p.getCreateAt().before(filter.getDesde()))
+                .filter(p -> filter.getHasta() == null || p.getCreateAt() != null && !p.getCreateAt().after(filter.getHasta()))
+                .sorted(order)
+                .limit(limit));
+    }
+
+    @Override
+    public Flux<Producto> findAllUpperCase() {
+        return findAll();
+    }
+
+    @Override
+    public Flux<Producto> findAllUpperCaseRepeat() {
+        return findAll();
+    }
+
+    @Override
+    public Mono<Producto> findById(String id) {
+        return Mono.justOrEmpty(productos.get(id));
+    }
+
+    @Override
+    public Flux<Producto> findAllById(Collection<String> ids) {
+        return Flux.fromIterable(ids).flatMap(id -> Mono.justOrEmpty(productos.get(id)));
+    }
+
+    @Override
+    public Mono<Producto> findById(String id, Set<String> fields) {
+        return findById(id);
+    }
+
+    @Override
+    public Mono<Producto> save(Producto producto) {
+        if (producto.getId() == null) {
+            producto.setId(new ObjectId().toHexString());
+        }
+        producto.setVersion(producto.getVersion() == null ? 0L : producto.getVersion() + 1);
+        productos.put(producto.getId(), producto);
+        return Mono.just(producto);
+    }
+
+    @Override
+    public Mono<Map<Integer, String>> insertAll(List<Producto> list) {
+        Map<Integer, String> errors = new HashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            Producto p = list.get(i);
+            if (p.getId() != null && productos.containsKey(p.getId())) {
+                errors.put(i, "Ya existe un producto con id " + p.getId());
+            } else {
+                save(p);
+            }
+        }
+        return Mono.just(errors);
+    }
+
+    @Override
+    public Mono<Producto> update(String id, Producto producto, Set<Long> versions) {
+        return findVersion(id, versions).map(p -> {
+            p.setNombre(producto.getNombre());
+            p.setPrecio(producto.getPrecio());
+            p.setCategoria(producto.getCategoria());
+            p.setVersion(ProductoETags.version(p) + 1);
+            return p;
+        });
+    }
+
+    @Override
+    public Mono<Producto> patch(String id, Producto producto, Set<Long> versions) {
+        return findVersion(id, versions).map(p -> {
+            p.setNombre(Objects.requireNonNullElse(producto.getNombre(), p.getNombre()));
+            p.setPrecio(Objects.requireNonNullElse(producto.getPrecio(), p.getPrecio()));
+            p.setCategoria(Objects.requireNonNullElse(producto.getCategoria(), p.getCategoria()));
+            p.setVersion(ProductoETags.version(p) + 1);
+            return p;
+        });
+    }
+
+    private Mono<Producto> findVersion(String id, Set<Long> versions) {
+        return findById(id).flatMap(p -> versions == null || versions.contains(ProductoETags.version(p))
+                ? Mono.just(p)
+                : Mono.error(new OptimisticLockingFailureException(id)));
+    }
+
+    @Override
+    public Mono<Producto> setMiniaturas(String id, String foto, Map<String, String> miniaturas) {
+        return findById(id).filter(p -> foto.equals(p.getFoto())).map(p -> {
+            p.setMiniaturas(miniaturas);
+            return p;
+        });
+    }
+
+    @Override
+    public Mono<Void> delete(Producto producto) {
+        return Mono.fromRunnable(() -> productos.remove(producto.getId()));
+    }
+
+    @Override
+    public Mono<Long> deleteById(String id, Set<Long> versions) {
+        return findVersion(id, versions).map(p -> productos.remove(id) == null ? 0L : 1L).defaultIfEmpty(0L);
+    }
+
+    @Override
+    public Mono<Long> deleteAllById(Collection<String> ids, boolean fotos) {
+        return Flux.fromIterable(ids).flatMap(id -> deleteById(id, null)).reduce(0L, Long::sum);
+    }
+
+    @Override
+    public Mono<Long> deleteByCategoria(String categoriaId, boolean fotos) {
+        return Mono.fromCallable(() -> {
+            long before = productos.size();
+            productos.values().removeIf(p -> p.getCategoria().getId().equals(categoriaId));
+            return before - productos.size();
+        });
+    }
+
+    @Override
+    public Flux<EstadisticasCategoria> findEstadisticasCategoria() {
+        return Flux.fromIterable(productos.values().stream()
+                .filter(p -> p.getCategoria() != null)
+                .collect(Collectors.groupingBy(p -> p.getCategoria().getId()))
+                .values())
+                .map(list -> {
+                    DoubleSummaryStatistics precios = list.stream().map(Producto::getPrecio).filter(Objects::nonNull)
+                            .mapToDouble(Double::doubleValue).summaryStatistics();
+                    EstadisticasCategoria s = new EstadisticasCategoria();
+                    s.setCategoria(list.get(0).getCategoria());
+                    s.setProductos(list.size());
+                    if (precios.getCount() > 0) {
+                        s.setPrecioMin(precios.getMin());
+                        s.setPrecioMedio(precios.getAverage());
+                        s.setPrecioMax(precios.getMax());
+                    }
+                    list.stream().map(Producto::getCreateAt).filter(Objects::nonNull).max(Date::compareTo)
+                            .ifPresent(s::setUltimoCreateAt);
+                    return s;
+                });
+    }
+
+    @Override
+    public Flux<Categoria> findAllCategoria() {
+        return Flux.fromIterable(categorias.values());
+    }
+
+    @Override
+    public Mono<Categoria> findCategoriaById(String id) {
+        return Mono.justOrEmpty(categorias.get(id));
+    }
+
+    @Override
+    public Mono<Categoria> saveCategoria(Categoria categoria) {
+        if (categoria.getId() == null) {
+            categoria.setId(new ObjectId().toHexString());
+        }
+        categorias.put(categoria.getId(), categoria);
+        return Mono.just(categoria);
+    }
+
+    @Override
+    public Mono<Producto> findByNombre(String nombre) {
+        return findAll().filter(p -> p.getNombre().equals(nombre)).next();
+    }
+
+    @Override
+    public Flux<Producto> search(String texto, int limit) {
+        String normalized = ProductSearchIndex.normalize(texto);
+        return findAll().filter(p -> ProductSearchIndex.normalize(p.getNombre()).contains(normalized)).take(limit);
+    }
+
+    @Override
+    public Mono<Categoria> findCategoriaByNombre(String nombre) {
+        return findAllCategoria().filter(c -> c.getNombre().equals(nombre)).next();
+    }
+}